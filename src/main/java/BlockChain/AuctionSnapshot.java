@@ -0,0 +1,107 @@
+package BlockChain;
+
+import Cryptography.CryptoUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * Signed copy of the auction state (see {@link AuctionState}) at a given block of the chain.
+ * <p>
+ * Snapshots are stored next to the blocks (see {@link BlockStore#writeSnapshot(AuctionSnapshot)}),
+ * so that on startup a peer only has to replay the blocks after the latest snapshot, instead of
+ * rebuilding the state from the whole chain. The signature covers the height, the hash of the
+ * block and the encoded state, so a snapshot that was changed on disk is detected.
+ * </p>
+ */
+public class AuctionSnapshot implements Serializable {
+    private final int height;         // Height of the last block applied to the state
+    private final String blockHash;   // Hash of that block
+    private final byte[] state;       // Serialized AuctionState
+    private final PublicKey signerPublicKey;
+    private final byte[] signature;
+
+    private AuctionSnapshot(int height, String blockHash, byte[] state, PublicKey signerPublicKey, byte[] signature) {
+        this.height = height;
+        this.blockHash = blockHash;
+        this.state = state;
+        this.signerPublicKey = signerPublicKey;
+        this.signature = signature;
+    }
+
+    /**
+     * Takes a signed snapshot of the auction state
+     * @param state      auction state after the block at {@code height} was applied
+     * @param height     height of the last block applied to the state
+     * @param blockHash  hash of that block
+     * @param privateKey private key used to sign the snapshot
+     * @param publicKey  public key of the signer
+     * @return the snapshot
+     */
+    public static AuctionSnapshot create(AuctionState state, int height, String blockHash,
+                                         PrivateKey privateKey, PublicKey publicKey) {
+        try {
+            byte[] encodedState = CryptoUtils.serialize(state);
+            byte[] signature = CryptoUtils.sign(privateKey, signedBytes(height, blockHash, encodedState));
+            return new AuctionSnapshot(height, blockHash, encodedState, publicKey, signature);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /* Getter's */
+    public int getHeight() {
+        return height;
+    }
+
+    public String getBlockHash() {
+        return blockHash;
+    }
+
+    public PublicKey getSignerPublicKey() {
+        return signerPublicKey;
+    }
+
+    /**
+     * Checks that the snapshot was signed by a given peer and wasn't changed since
+     * @param publicKey public key of the peer that should have signed the snapshot
+     * @return {@code true} if the signature is valid, {@code false} otherwise
+     */
+    public boolean verify(PublicKey publicKey) {
+        if (publicKey == null || !publicKey.equals(signerPublicKey)) return false;
+        try {
+            return CryptoUtils.verifySignature(publicKey, signedBytes(height, blockHash, state), signature);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a new copy of the auction state in the snapshot
+     */
+    public AuctionState getState() {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state))) {
+            return (AuctionState) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return height (4) | blockHash (32) | state
+     */
+    private static byte[] signedBytes(int height, String blockHash, byte[] state) {
+        return ByteBuffer.allocate(Integer.BYTES + Utils.HASH_LENGTH + state.length)
+                .putInt(height)
+                .put(Utils.hashToBytes(blockHash))
+                .put(state)
+                .array();
+    }
+
+    @Override
+    public String toString() {
+        return "{ Height = " + height + ", BlockHash = " + blockHash + ", Size = " + state.length + " bytes }";
+    }
+}
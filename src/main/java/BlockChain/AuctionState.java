@@ -0,0 +1,200 @@
+package BlockChain;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Class that represents the state of the auctions (their status, owner, bids and
+ * winner), derived from the transactions in the blockchain. It is updated incrementally (block by block) when blocks
+ * are added to the chain, so that queries don't need to go through the whole chain.
+ * <p>
+ * An auction is open if it has been {@code START_AUCTION} and has not been
+ * {@code CLOSE_AUCTION} afterward — even if {@code CLOSE_AUCTION} appears before
+ * {@code START_AUCTION} in the chain (a closed auction can't be opened again).
+ * </p>
+ * <p>
+ * For the last {@link Constants#MAX_REORG_DEPTH} blocks that were applied, the state keeps what each
+ * block changed, so that those blocks can be reverted (when the chain switches to another branch)
+ * without rebuilding the state from the whole chain.
+ * </p>
+ */
+public class AuctionState implements Serializable {
+    public enum AuctionStatus {
+        OPEN, CLOSED
+    }
+
+    private final Map<String, AuctionStatus> statusByAuction = new HashMap<>(); // auctionId -> status
+    private final Map<String, String> ownerByAuction = new HashMap<>();         // auctionId -> owner
+    private final Set<String> openAuctions = new HashSet<>();                   // auctionId's of open auctions
+    private final Map<String, BidBook> bidBooks = new HashMap<>();              // auctionId -> bids made to the auction
+    private final Map<String, String> winnerByAuction = new HashMap<>();        // auctionId -> highest bidder when it closed
+    private transient LinkedHashMap<String, List<Change>> journal;              // blockHash -> state of the auctions before the block
+
+    /**
+     * Updates the state with the transactions of a block (that was added to the chain)
+     * @param block block that was added to the chain
+     */
+    public void apply(Block block){
+        Map<String, Change> changes = new LinkedHashMap<>();
+        for (Transaction t : block.getTransactions()) {
+            changes.computeIfAbsent(t.getAuctionId(), this::currentState);
+            apply(t);
+        }
+        getJournal().put(block.getBlockHash(), new ArrayList<>(changes.values()));
+    }
+
+    /**
+     * Undoes the changes made by a block (the last block that was applied and not reverted)
+     * @param block block that was removed from the chain
+     * @return {@code true} if the block was reverted, {@code false} if the state doesn't know what
+     *         the block changed (it was applied too long ago), and must be rebuilt from the chain
+     */
+    public boolean revert(Block block){
+        List<Change> changes = getJournal().remove(block.getBlockHash());
+        if (changes == null) return false;
+        for (Change c : changes)
+            restore(c);
+        return true;
+    }
+
+    /**
+     * Updates the state with a single transaction (in chain order)
+     * @param t transaction that is part of the chain
+     */
+    private void apply(Transaction t){
+        String auctionId = t.getAuctionId();
+        switch (t.getType()) {
+            case START_AUCTION:
+                if (!statusByAuction.containsKey(auctionId)) { // Only open if not previously closed
+                    statusByAuction.put(auctionId, AuctionStatus.OPEN);
+                    ownerByAuction.put(auctionId, t.getOwner());
+                    openAuctions.add(auctionId);
+                }
+                break;
+            case CLOSE_AUCTION:
+                if (openAuctions.remove(auctionId)) {
+                    BidBook bids = bidBooks.get(auctionId);
+                    if (bids != null && !bids.isEmpty())
+                        winnerByAuction.put(auctionId, bids.getHighestBidder());
+                }
+                statusByAuction.put(auctionId, AuctionStatus.CLOSED); // regardless of previous START
+                ownerByAuction.putIfAbsent(auctionId, t.getOwner());
+                break;
+            case PLACE_BID:
+                bidBooks.computeIfAbsent(auctionId, BidBook::new).addBid(t);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the state of an auction (that is about to be changed)
+     */
+    private Change currentState(String auctionId){
+        BidBook bids = bidBooks.get(auctionId);
+        return new Change(auctionId, statusByAuction.get(auctionId), ownerByAuction.get(auctionId),
+                winnerByAuction.get(auctionId), openAuctions.contains(auctionId), bids == null ? 0 : bids.size());
+    }
+
+    /**
+     * Puts an auction back in the state it had before a block changed it
+     */
+    private void restore(Change c){
+        restore(statusByAuction, c.auctionId(), c.status());
+        restore(ownerByAuction, c.auctionId(), c.owner());
+        restore(winnerByAuction, c.auctionId(), c.winner());
+        if (c.open()) openAuctions.add(c.auctionId());
+        else openAuctions.remove(c.auctionId());
+
+        BidBook bids = bidBooks.get(c.auctionId());
+        if (bids != null) {
+            bids.truncate(c.bids());
+            if (bids.isEmpty()) bidBooks.remove(c.auctionId());
+        }
+    }
+
+    private static <V> void restore(Map<String, V> map, String key, V value){
+        if (value == null) map.remove(key);
+        else map.put(key, value);
+    }
+
+    /**
+     * @return the journal of the last blocks that were applied (only the most recent ones are kept)
+     */
+    private LinkedHashMap<String, List<Change>> getJournal(){
+        if (journal == null) {
+            journal = new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<Change>> eldest) {
+                    return size() > Constants.MAX_REORG_DEPTH;
+                }
+            };
+        }
+        return journal;
+    }
+
+    /**
+     * State of an auction before a block changed it
+     */
+    private record Change(String auctionId, AuctionStatus status, String owner, String winner,
+                          boolean open, int bids) {
+    }
+
+    /* Queries */
+
+    /**
+     * @param auctionId id of the auction (owner:auctionName)
+     * @return {@code true} if the auction was started and not closed, {@code false} otherwise
+     */
+    public boolean isOpen(String auctionId){
+        return statusByAuction.get(auctionId) == AuctionStatus.OPEN;
+    }
+
+    /**
+     * @param auctionId id of the auction (owner:auctionName)
+     * @return the status of the auction, or {@code null} if it never appeared in the chain
+     */
+    public AuctionStatus getStatus(String auctionId){
+        return statusByAuction.get(auctionId);
+    }
+
+    /**
+     * @param auctionId id of the auction (owner:auctionName)
+     * @return the owner of the auction, or {@code null} if it never appeared in the chain
+     */
+    public String getOwner(String auctionId){
+        return ownerByAuction.get(auctionId);
+    }
+
+    /**
+     * @return a copy of the set of ids of the auctions that are currently open
+     */
+    public Set<String> getOpenAuctions(){
+        return new HashSet<>(openAuctions);
+    }
+
+    /**
+     * @param auctionId id of the auction (owner:auctionName)
+     * @return the bids made to the auction, or {@code null} if no bids were made to it
+     */
+    public BidBook getBidBook(String auctionId){
+        return bidBooks.get(auctionId);
+    }
+
+    /**
+     * @param auctionId id of the auction (owner:auctionName)
+     * @return the user with the highest bid when the auction was closed, or {@code null}
+     *         if the auction isn't closed or had no bids
+     */
+    public String getWinner(String auctionId){
+        return winnerByAuction.get(auctionId);
+    }
+
+    @Override
+    public String toString() {
+        return "{ Auctions = " + statusByAuction + ", " +
+                "Bids = " + bidBooks.values() + ", " +
+                "Winners = " + winnerByAuction + " }";
+    }
+}
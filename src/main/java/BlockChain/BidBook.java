@@ -0,0 +1,107 @@
+package BlockChain;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class that represents the bids made to a single auction (in the blockchain).
+ * <p>
+ * It keeps the history of {@code PLACE_BID} transactions in chain order and, for each
+ * position of the history, which bid was the highest up to that position. This way the
+ * current highest bid (and bidder) is always available in constant time.
+ * </p>
+ */
+public class BidBook implements Serializable {
+    private final String auctionId;
+    private final List<Transaction> history = new ArrayList<>();  // Bids in chain order
+    private final List<Integer> highestIndex = new ArrayList<>(); // highestIndex[i] = position of highest bid in history[0..i]
+
+    /**
+     * Constructor for a BidBook
+     * @param auctionId id of the auction (owner:auctionName)
+     */
+    public BidBook(String auctionId) {
+        this.auctionId = auctionId;
+    }
+
+    /**
+     * Adds a bid (that is part of the chain) to the book
+     * @param bid {@code PLACE_BID} transaction
+     */
+    public void addBid(Transaction bid){
+        int highest = history.size();
+        if (!history.isEmpty()) {
+            int previousHighest = highestIndex.get(highestIndex.size() - 1);
+            // On ties the bid that was made first remains the highest one
+            if (bid.getBidAmount() <= history.get(previousHighest).getBidAmount())
+                highest = previousHighest;
+        }
+        history.add(bid);
+        highestIndex.add(highest);
+    }
+
+    /**
+     * Removes the most recent bids, so that only the first {@code size} bids remain
+     * (used when the blocks with those bids are removed from the chain)
+     * @param size number of bids that remain in the book
+     */
+    public void truncate(int size){
+        if (size >= history.size()) return;
+        history.subList(size, history.size()).clear();
+        highestIndex.subList(size, highestIndex.size()).clear();
+    }
+
+    /* Getter's */
+    public String getAuctionId() {
+        return auctionId;
+    }
+
+    /**
+     * @return the bids made to the auction (in chain order)
+     */
+    public List<Transaction> getHistory() {
+        return Collections.unmodifiableList(history);
+    }
+
+    public boolean isEmpty(){
+        return history.isEmpty();
+    }
+
+    public int size(){
+        return history.size();
+    }
+
+    /**
+     * @return the transaction of the highest bid, or {@code null} if there are no bids
+     */
+    public Transaction getHighestBid(){
+        if (history.isEmpty()) return null;
+        return history.get(highestIndex.get(highestIndex.size() - 1));
+    }
+
+    /**
+     * @return the amount of the highest bid, or {@link Double#NEGATIVE_INFINITY} if there are no bids
+     */
+    public double getHighestBidAmount(){
+        Transaction highest = getHighestBid();
+        return highest == null ? Double.NEGATIVE_INFINITY : highest.getBidAmount();
+    }
+
+    /**
+     * @return the user that made the highest bid, or {@code null} if there are no bids
+     */
+    public String getHighestBidder(){
+        Transaction highest = getHighestBid();
+        return highest == null ? null : highest.getUsername();
+    }
+
+    @Override
+    public String toString() {
+        return "{ AuctionId = " + auctionId + ", " +
+                "Number of bids = " + history.size() + ", " +
+                "Highest bidder = " + getHighestBidder() + ", " +
+                "Highest bid = " + (history.isEmpty() ? "-" : getHighestBidAmount()) + " }";
+    }
+}
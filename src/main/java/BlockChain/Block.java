@@ -3,6 +3,9 @@ package BlockChain;
 import Cryptography.CryptoUtils;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.PublicKey;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,13 +16,23 @@ import java.util.Date;
  * to construct the blockchain
  */
 public class Block implements Serializable {
+    private static final long serialVersionUID = 1L; // Blocks are kept in the block store, see BlockStore
+    /**
+     * Position (in bytes) of the Merkle root in the encoded header
+     */
+    public static final int MERKLE_ROOT_OFFSET = Integer.BYTES + Utils.HASH_LENGTH;
+
     private ArrayList<Transaction> transactions;
     private String blockHash;
     private String  previousBlockHash;
     private long timestamp;
     private int nonce;
+    private int difficultyBits; // Number of leading zero bits the block hash must have
     private  byte[] minerSignature = null; // Digital Signature of this block's header with Priv. Key of the respectiv miner
     private PublicKey minerPublicKey = null; // Public key of this block miner
+    private transient byte[] merkleRoot;     // Cache of the Merkle root of the transactions
+    private transient byte[] headerPrefix;   // Cache of the encoded header without the nonce
+    private transient byte[] headerBytes;    // Cache of the full encoded header
 
     /**
      * Constructor for a Block
@@ -27,13 +40,40 @@ public class Block implements Serializable {
      * @param previousBlockHash  The hash of the last block in the blockchain
      */
     public Block(ArrayList<Transaction> transactions, String previousBlockHash) {
+        this(transactions, previousBlockHash, Constants.INITIAL_DIFFICULTY_BITS);
+    }
+
+    /**
+     * Constructor for a Block with a given dificulty
+     * @param transactions       List of transaction that will be a part of this block
+     * @param previousBlockHash  The hash of the last block in the blockchain
+     * @param difficultyBits     Number of leading zero bits the hash of the block must have
+     */
+    public Block(ArrayList<Transaction> transactions, String previousBlockHash, int difficultyBits) {
         this.transactions = transactions;
         this.previousBlockHash = previousBlockHash;
         this.timestamp = new Date().getTime();
         this.nonce = 0;
+        this.difficultyBits = difficultyBits;
         calculateBlockHash();
     }
 
+    /**
+     * Copy constructor for the header of a Block (used by the mining workers,
+     * so that each one can change nonce/timestamp without affecting the others)
+     * @param other Block we are going to copy (transactions are shared, not copied)
+     */
+    public Block(Block other) {
+        this.transactions = other.transactions;
+        this.previousBlockHash = other.previousBlockHash;
+        this.timestamp = other.timestamp;
+        this.nonce = other.nonce;
+        this.difficultyBits = other.difficultyBits;
+        this.blockHash = other.blockHash;
+        this.merkleRoot = other.merkleRoot;
+        this.headerPrefix = other.headerPrefix;
+    }
+
     /* Getter's & Setter's (most Setter's are there just for testing purposes) */
 
     public ArrayList<Transaction> getTransactions() {
@@ -64,8 +104,13 @@ public class Block implements Serializable {
         return nonce;
     }
 
+    public int getDifficultyBits() {
+        return difficultyBits;
+    }
+
     public void incrementNonce(){
         this.nonce++;
+        this.headerBytes = null;
     }
 
     public void setMinerSignature(byte[] minerSignature) {
@@ -89,14 +134,22 @@ public class Block implements Serializable {
 
     public void setPreviousBlockHash(String previousBlockHash) {
         this.previousBlockHash = previousBlockHash;
+        resetEncoding();
     }
 
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
+        resetEncoding();
+    }
+
+    public void setDifficultyBits(int difficultyBits) {
+        this.difficultyBits = difficultyBits;
+        resetEncoding();
     }
 
     public void setNonce(int nonce) {
         this.nonce = nonce;
+        this.headerBytes = null;
     }
 
 
@@ -104,19 +157,104 @@ public class Block implements Serializable {
 
     /**
      * Calculates the hash of the current Block
-     * BlockHash = previousBlockHash +  timestamp + nonce + transactions
+     * BlockHash = SHA-256( headerBytes )
+     * @see #getHeaderBytes()
      */
     public String calculateBlockHash(){
-        String input = previousBlockHash + timestamp + nonce + transactions;
-        this.blockHash = CryptoUtils.getHash256(input);
+        this.blockHash = Utils.getHexString(CryptoUtils.getSha256Digest().digest(getHeaderBytes()));
         return this.blockHash;
     }
+
+    /**
+     * Returns the canonical binary encoding of the block header. This is what is hashed
+     * (to obtain the block hash) and what the miner signs:
+     * <pre>
+     *  headerBytes = headerPrefix | nonce (4)
+     * </pre>
+     * The encoding is cached and only recomputed when a header field changes.
+     *
+     * @return the encoded block header
+     * @throws IllegalArgumentException if the previous block hash isn't a valid hash
+     */
+    public byte[] getHeaderBytes(){
+        if (headerBytes == null) {
+            byte[] prefix = getHeaderPrefix();
+            headerBytes = ByteBuffer.allocate(prefix.length + Integer.BYTES)
+                    .put(prefix)
+                    .putInt(nonce)
+                    .array();
+        }
+        return headerBytes;
+    }
+
+    /**
+     * Returns the part of the block header that doesn't change while the block is mined
+     * (everything but the nonce, which is always the last 4 bytes of the hashed header):
+     * <pre>
+     *  headerPrefix = version (4) | previousBlockHash (32) | merkleRoot (32) | timestamp (8) | difficultyBits (4)
+     * </pre>
+     * The transactions are only represented by their Merkle root (see {@link #getMerkleRoot()}),
+     * so the whole header has 84 bytes, no matter how many transactions the block has.
+     * <p>
+     * This allows miners to hash the prefix once and only hash the nonce bytes per attempt.
+     * </p>
+     * @return the encoded header prefix
+     * @throws IllegalArgumentException if the previous block hash isn't a valid hash
+     */
+    public byte[] getHeaderPrefix(){
+        if (headerPrefix == null) {
+            headerPrefix = ByteBuffer.allocate(MERKLE_ROOT_OFFSET + Utils.HASH_LENGTH + Long.BYTES + Integer.BYTES)
+                    .putInt(Constants.ENCODING_VERSION)
+                    .put(Utils.hashToBytes(previousBlockHash))
+                    .put(getMerkleRoot())
+                    .putLong(timestamp)
+                    .putInt(difficultyBits)
+                    .array();
+        }
+        return headerPrefix;
+    }
+
+    /**
+     * Returns the Merkle root of the ids of the transactions in this block
+     * (computed once, since the transactions of a block don't change)
+     * @return the raw bytes of the Merkle root
+     * @see MerkleTree
+     */
+    public byte[] getMerkleRoot(){
+        if (merkleRoot == null)
+            merkleRoot = MerkleTree.computeRoot(transactions);
+        return merkleRoot;
+    }
+
+    /**
+     * Builds the proof that a transaction is in this block, which can be checked
+     * with only the block header (see {@link MerkleProof#verify(String)})
+     * @param transactionId id of the transaction
+     * @return the inclusion proof, or {@code null} if the transaction isn't in this block
+     */
+    public MerkleProof getInclusionProof(String transactionId){
+        for (int i = 0; i < transactions.size(); i++) {
+            if (transactions.get(i).getTransactionId().equals(transactionId))
+                return new MerkleProof(transactionId, getHeaderBytes(), MerkleTree.buildPath(transactions, i));
+        }
+        return null;
+    }
+
+    /**
+     * Discards the cached header encoding (called when a header field changes)
+     */
+    private void resetEncoding(){
+        this.headerPrefix = null;
+        this.headerBytes = null;
+    }
+
     @Override
     public String toString() {
         return "{ PreviousBlockHash = " + this.previousBlockHash + ", " +
                 "Timestamp = " + Utils.convertTime(this.timestamp) +  ", " +
                 "BlockHash = " + this.blockHash + ", " +
                 "Nonce = " + this.nonce  + ", "+
+                "DifficultyBits = " + this.difficultyBits  + ", "+
                 "Transactions = " +transactions + " }" ;
     }
 }
@@ -0,0 +1,75 @@
+package BlockChain;
+
+/**
+ * Policy that decides when the transactions in the mempool are enough to mine a block,
+ * and how many of them go into it.
+ * <p>
+ * A block is mined as soon as there are {@code minFill} transactions waiting, or when the oldest
+ * waiting transaction has waited {@code maxWaitMs} (so a single bid is never delayed more than the
+ * wait window). Each block takes at most {@code maxTransactions}, so under load many bids are packed
+ * into one block instead of mining one block per bid.
+ * </p>
+ */
+public class BlockAssemblyPolicy {
+    /**
+     * Policy with the limits in {@link Constants}
+     */
+    public static final BlockAssemblyPolicy DEFAULT = new BlockAssemblyPolicy(
+            Constants.MAX_TRANSACTIONS_PER_BLOCK, Constants.MIN_BLOCK_FILL, Constants.MAX_BLOCK_WAIT_MS);
+
+    private final int maxTransactions;
+    private final int minFill;
+    private final long maxWaitMs;
+
+    /**
+     * Constructor for a BlockAssemblyPolicy
+     * @param maxTransactions maximum number of transactions of a block
+     * @param minFill         number of waiting transactions that is enough to mine a block right away
+     * @param maxWaitMs       maximum time (in milliseconds) a transaction waits before a block is mined
+     * @throws IllegalArgumentException if the limits are not positive or {@code minFill > maxTransactions}
+     */
+    public BlockAssemblyPolicy(int maxTransactions, int minFill, long maxWaitMs) {
+        if (maxTransactions <= 0 || minFill <= 0 || maxWaitMs < 0 || minFill > maxTransactions)
+            throw new IllegalArgumentException("Invalid block assembly policy: maxTransactions = " + maxTransactions +
+                    ", minFill = " + minFill + ", maxWaitMs = " + maxWaitMs);
+        this.maxTransactions = maxTransactions;
+        this.minFill = minFill;
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /* Getter's */
+    public int getMaxTransactions() {
+        return maxTransactions;
+    }
+
+    public int getMinFill() {
+        return minFill;
+    }
+
+    public long getMaxWaitMs() {
+        return maxWaitMs;
+    }
+
+    /**
+     * @param pending  number of transactions waiting to be mined
+     * @param waitedMs time (in milliseconds) the oldest of them has been waiting
+     * @return {@code true} if a block should be mined now
+     */
+    public boolean isReady(int pending, long waitedMs) {
+        return pending >= minFill || (pending > 0 && waitedMs >= maxWaitMs);
+    }
+
+    /**
+     * @param pending  number of transactions waiting to be mined
+     * @param waitedMs time (in milliseconds) the oldest of them has been waiting
+     * @return time (in milliseconds) until a block should be mined, if no other transaction arrives
+     */
+    public long remainingWaitMs(int pending, long waitedMs) {
+        return isReady(pending, waitedMs) ? 0 : Math.max(0, maxWaitMs - waitedMs);
+    }
+
+    @Override
+    public String toString() {
+        return "{ MaxTransactions = " + maxTransactions + ", MinFill = " + minFill + ", MaxWait = " + maxWaitMs + " ms }";
+    }
+}
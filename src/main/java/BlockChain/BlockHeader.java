@@ -0,0 +1,135 @@
+package BlockChain;
+
+import Cryptography.CryptoUtils;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Header of a block, without its transactions (only their Merkle root), used to sync the chain
+ * headers-first: a peer that is behind downloads the headers it is missing, checks that they form
+ * a chain with valid Proof-Of-Work, and only then downloads the blocks (see {@link #matches(Block)}).
+ * <p>
+ * The header is kept in its canonical encoding (see {@link Block#getHeaderBytes()}), so its hash is
+ * the hash of the block, and the fields are read from the encoding:
+ * <pre>
+ *  version (4) | previousBlockHash (32) | merkleRoot (32) | timestamp (8) | difficultyBits (4) | nonce (4)
+ * </pre>
+ * </p>
+ */
+public class BlockHeader implements Serializable {
+    private static final int PREVIOUS_HASH_OFFSET = Integer.BYTES;
+    private static final int TIMESTAMP_OFFSET = Block.MERKLE_ROOT_OFFSET + Utils.HASH_LENGTH;
+    private static final int DIFFICULTY_OFFSET = TIMESTAMP_OFFSET + Long.BYTES;
+    private static final int NONCE_OFFSET = DIFFICULTY_OFFSET + Integer.BYTES;
+    private static final int LENGTH = NONCE_OFFSET + Integer.BYTES;
+
+    private final byte[] encoded;
+    private transient String blockHash; // Cache of the hash of the header
+
+    /**
+     * Constructor for a BlockHeader
+     * @param encoded canonical encoding of the header
+     * @throws IllegalArgumentException if the encoding doesn't have the size of a header
+     */
+    public BlockHeader(byte[] encoded) {
+        if (encoded == null || encoded.length != LENGTH)
+            throw new IllegalArgumentException("Invalid block header encoding");
+        this.encoded = encoded.clone();
+    }
+
+    /**
+     * @param block block of the chain
+     * @return the header of the block
+     */
+    public static BlockHeader of(Block block) {
+        return new BlockHeader(block.getHeaderBytes());
+    }
+
+    /* Getter's */
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+
+    public String getBlockHash() {
+        if (blockHash == null)
+            blockHash = Utils.getHexString(CryptoUtils.getSha256Digest().digest(encoded));
+        return blockHash;
+    }
+
+    public byte[] getPreviousBlockHash() {
+        return Arrays.copyOfRange(encoded, PREVIOUS_HASH_OFFSET, PREVIOUS_HASH_OFFSET + Utils.HASH_LENGTH);
+    }
+
+    public byte[] getMerkleRoot() {
+        return Arrays.copyOfRange(encoded, Block.MERKLE_ROOT_OFFSET, Block.MERKLE_ROOT_OFFSET + Utils.HASH_LENGTH);
+    }
+
+    public long getTimestamp() {
+        return ByteBuffer.wrap(encoded).getLong(TIMESTAMP_OFFSET);
+    }
+
+    public int getDifficultyBits() {
+        return ByteBuffer.wrap(encoded).getInt(DIFFICULTY_OFFSET);
+    }
+
+    public int getNonce() {
+        return ByteBuffer.wrap(encoded).getInt(NONCE_OFFSET);
+    }
+
+    /**
+     * Checks that the header has been mined (PoW), with at least the minimum dificulty
+     * @return {@code true} if its hash has the leading zero bits its dificulty requires
+     */
+    public boolean powIsValid() {
+        int bits = getDifficultyBits();
+        return bits >= Constants.MIN_DIFFICULTY_BITS && bits <= Constants.MAX_DIFFICULTY_BITS
+                && Utils.countLeadingZeroBits(Utils.hashToBytes(getBlockHash())) >= bits;
+    }
+
+    /**
+     * Checks if a block is the one this header refers to (same header, so the same
+     * hash and the same transactions, since the header has their Merkle root)
+     * @param block block we are checking
+     * @return {@code true} if the block has this header, {@code false} otherwise
+     */
+    public boolean matches(Block block) {
+        try {
+            return block != null && Arrays.equals(encoded, block.getHeaderBytes());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks that a list of headers is a chain that continues after a given block: each header
+     * links to the previous one (the first to {@code previousBlockHash}) and has valid PoW.
+     * <p>
+     * Everything else (signatures, required dificulty and transactions) is only checked when
+     * the blocks are added to the blockchain.
+     * </p>
+     * @param previousBlockHash hash of the block before the first header ("" if it is the first block)
+     * @param headers           headers in chain order
+     * @return the number of headers (from the first) that form a valid chain
+     */
+    public static int validChainLength(String previousBlockHash, List<BlockHeader> headers) {
+        byte[] previous = Utils.hashToBytes(previousBlockHash);
+        for (int i = 0; i < headers.size(); i++) {
+            BlockHeader header = headers.get(i);
+            if (!Arrays.equals(previous, header.getPreviousBlockHash()) || !header.powIsValid())
+                return i;
+            previous = Utils.hashToBytes(header.getBlockHash());
+        }
+        return headers.size();
+    }
+
+    @Override
+    public String toString() {
+        return "{ BlockHash = " + getBlockHash() + ", " +
+                "Timestamp = " + Utils.convertTime(getTimestamp()) + ", " +
+                "DifficultyBits = " + getDifficultyBits() + ", " +
+                "Nonce = " + getNonce() + " }";
+    }
+}
@@ -0,0 +1,356 @@
+package BlockChain;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Durable storage of the blocks of a blockchain, made of append-only segment files.
+ * <p>
+ * Each block is written (in order of height) as a record at the end of the current segment:
+ * <pre>
+ *  record = length (4) | CRC-32 of the block (4) | block (Java serialization, with a fixed serialVersionUID)
+ * </pre>
+ * When a segment reaches {@link #SEGMENT_SIZE} a new one is started. The store keeps an index
+ * height → (segment, offset) and hash → height, and reads blocks through memory-mapped segments.
+ * </p>
+ * <p>
+ * Since records are only appended, a crash can only leave a partially written record at the end
+ * of the last segment. When the store is opened, that (torn) record and anything after it are
+ * discarded, so the store always holds a valid prefix of the chain.
+ * </p>
+ * <p>
+ * The store also keeps the latest snapshots of the auction state (see {@link AuctionSnapshot}).
+ * </p>
+ */
+public class BlockStore implements Closeable {
+    /**
+     * Maximum size (in bytes) of a segment file, before a new one is started
+     */
+    public static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int RECORD_HEADER = 2 * Integer.BYTES; // length | crc
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".blk";
+    private static final String SNAPSHOT_PREFIX = "snapshot_";
+    private static final String SNAPSHOT_SUFFIX = ".state";
+    private static final int SNAPSHOTS_KEPT = 2; // The latest one, and the previous one in case the latest is unusable
+
+    private final Path directory;
+    private final List<Path> segments = new ArrayList<>();
+    private final List<MappedByteBuffer> mappedSegments = new ArrayList<>(); // Lazily (re)mapped for reads
+    private final List<long[]> locations = new ArrayList<>();                // height -> {segment, offset}
+    private final Map<String, Integer> heightByHash = new HashMap<>();
+    private FileChannel activeChannel; // Channel of the last segment (the only one we write to)
+
+    /**
+     * Opens (or creates) the block store in the given directory, discarding any
+     * torn record left at the end of the last segment
+     * @param directory directory where the segment files are stored
+     * @throws IOException if the segments can't be read or repaired
+     */
+    public BlockStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted()
+                    .forEach(segments::add);
+        }
+        recover();
+        if (segments.isEmpty())
+            segments.add(segmentPath(0));
+        for (int i = 0; i < segments.size(); i++)
+            mappedSegments.add(null);
+        openActiveSegment();
+    }
+
+    /* Getter's */
+
+    /**
+     * @return number of blocks in the store
+     */
+    public synchronized int size() {
+        return locations.size();
+    }
+
+    /**
+     * @param blockHash hash of a block
+     * @return the height of the block in the store, or -1 if the store doesn't have it
+     *         (only blocks that were read or appended since the store was opened are indexed)
+     */
+    public synchronized int getHeight(String blockHash) {
+        return heightByHash.getOrDefault(blockHash, -1);
+    }
+
+    /* Auxiliar methods */
+
+    /**
+     * Appends a block to the end of the store (i.e. at height {@link #size()}).
+     * The record is forced to disk before this method returns.
+     * @param block block we are storing
+     * @throws IOException if the block couldn't be written
+     */
+    public synchronized void append(Block block) throws IOException {
+        byte[] data = serialize(block);
+        if (activeChannel.size() > 0 && activeChannel.size() + RECORD_HEADER + data.length > SEGMENT_SIZE) {
+            activeChannel.close();
+            segments.add(segmentPath(segments.size()));
+            mappedSegments.add(null);
+            openActiveSegment();
+        }
+
+        long offset = activeChannel.size();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + data.length)
+                .putInt(data.length)
+                .putInt(crc(data, 0, data.length))
+                .put(data)
+                .flip();
+        try {
+            write(record, offset);
+            activeChannel.force(false);
+        } catch (IOException e) {
+            // Remove the partially written record, so the next one isn't written after it
+            // (the store would discard both, and every block after them, when it is reopened)
+            try {
+                activeChannel.truncate(offset);
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
+        }
+
+        locations.add(new long[]{segments.size() - 1, offset});
+        heightByHash.put(block.getBlockHash(), locations.size() - 1);
+    }
+
+    /**
+     * Reads the block at a given height
+     * @param height height of the block (0 is the first block)
+     * @return the block stored at that height
+     * @throws IOException if the block can't be read
+     */
+    public synchronized Block read(int height) throws IOException {
+        long[] location = locations.get(height);
+        int segment = (int) location[0];
+        int offset = (int) location[1];
+
+        ByteBuffer buffer = mappedSegment(segment, offset + RECORD_HEADER);
+        int length = buffer.getInt(offset);
+        buffer = mappedSegment(segment, offset + RECORD_HEADER + length);
+        byte[] data = new byte[length];
+        buffer.get(offset + RECORD_HEADER, data);
+
+        Block block = deserialize(data);
+        heightByHash.put(block.getBlockHash(), height);
+        return block;
+    }
+
+    /**
+     * Reads all the blocks in the store, in order of height.
+     * <p>
+     * Torn records were already discarded when the store was opened, so a block that can't be read
+     * here means the stored data (or the {@link Block} class) is not what we expect. In that case
+     * the store is left untouched and the error is thrown.
+     * </p>
+     * @return the list of blocks in the store
+     * @throws IOException if a block can't be read
+     */
+    public synchronized ArrayList<Block> readAll() throws IOException {
+        ArrayList<Block> blocks = new ArrayList<>(locations.size());
+        for (int height = 0; height < locations.size(); height++) {
+            try {
+                blocks.add(read(height));
+            } catch (IOException e) {
+                throw new IOException("Block store: could not read block [" + height + "] of " + directory, e);
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Removes the blocks at position {@code height} and after it from the store
+     * @param height number of blocks that will be kept
+     * @throws IOException if the segments can't be truncated
+     */
+    public synchronized void truncate(int height) throws IOException {
+        if (height >= locations.size()) return;
+
+        long[] location = locations.get(height);
+        int segment = (int) location[0];
+        activeChannel.close();
+        truncateFrom(segment, location[1]);
+        heightByHash.values().removeIf(h -> h >= height);
+        locations.subList(height, locations.size()).clear();
+        openActiveSegment();
+    }
+
+    /**
+     * Stores a snapshot of the auction state, replacing the older snapshots (only the
+     * latest {@value #SNAPSHOTS_KEPT} are kept). The snapshot file is written atomically.
+     * @param snapshot snapshot of the auction state
+     * @throws IOException if the snapshot couldn't be written
+     */
+    public synchronized void writeSnapshot(AuctionSnapshot snapshot) throws IOException {
+        Path path = directory.resolve(String.format("%s%010d%s", SNAPSHOT_PREFIX, snapshot.getHeight(), SNAPSHOT_SUFFIX));
+        Path temporary = directory.resolve(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(serialize(snapshot)));
+            channel.force(false);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        List<Path> snapshots = listSnapshots();
+        for (int i = 0; i < snapshots.size() - SNAPSHOTS_KEPT; i++)
+            Files.deleteIfExists(snapshots.get(i));
+    }
+
+    /**
+     * Reads the stored snapshots of the auction state, from the latest to the oldest
+     * (snapshots that can't be read are skipped)
+     * @return the snapshots, the latest first
+     * @throws IOException if the directory of the store can't be read
+     */
+    public synchronized List<AuctionSnapshot> readSnapshots() throws IOException {
+        List<AuctionSnapshot> snapshots = new ArrayList<>();
+        List<Path> paths = listSnapshots();
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            try (ObjectInputStream in = new ObjectInputStream(Files.newInputStream(paths.get(i)))) {
+                snapshots.add((AuctionSnapshot) in.readObject());
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                System.out.println("Block store: could not read snapshot " + paths.get(i).getFileName());
+            }
+        }
+        return snapshots;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        activeChannel.close();
+    }
+
+    /**
+     * Scans every segment (checking the length and CRC of each record) to build the height index.
+     * The first invalid (torn) record and everything after it is removed.
+     */
+    private void recover() throws IOException {
+        for (int segment = 0; segment < segments.size(); segment++) {
+            Path path = segments.get(segment);
+            long fileSize = Files.size(path);
+            if (fileSize == 0) continue;
+
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            }
+
+            long offset = 0;
+            while (offset < fileSize) {
+                int length = offset + RECORD_HEADER <= fileSize ? buffer.getInt((int) offset) : -1;
+                if (length <= 0 || offset + RECORD_HEADER + length > fileSize
+                        || buffer.getInt((int) offset + Integer.BYTES) != crc(buffer, (int) offset + RECORD_HEADER, length)) {
+                    System.out.println("Block store: discarding torn record at " + path.getFileName() + "@" + offset);
+                    truncateFrom(segment, offset);
+                    return;
+                }
+                locations.add(new long[]{segment, offset});
+                offset += RECORD_HEADER + length;
+            }
+        }
+    }
+
+    /**
+     * Truncates a segment at a given offset and deletes all the segments after it
+     */
+    private void truncateFrom(int segment, long offset) throws IOException {
+        try (FileChannel channel = FileChannel.open(segments.get(segment), StandardOpenOption.WRITE)) {
+            channel.truncate(offset);
+            channel.force(true);
+        }
+        for (int i = segments.size() - 1; i > segment; i--) {
+            Files.deleteIfExists(segments.remove(i));
+            if (i < mappedSegments.size()) mappedSegments.remove(i);
+        }
+        if (segment < mappedSegments.size())
+            mappedSegments.set(segment, null);
+    }
+
+    /**
+     * Returns the mapping of a segment that covers at least {@code minSize} bytes,
+     * mapping the segment again if it has grown since it was last mapped
+     */
+    private MappedByteBuffer mappedSegment(int segment, long minSize) throws IOException {
+        MappedByteBuffer buffer = mappedSegments.get(segment);
+        if (buffer == null || buffer.capacity() < minSize) {
+            try (FileChannel channel = FileChannel.open(segments.get(segment), StandardOpenOption.READ)) {
+                if (channel.size() < minSize)
+                    throw new EOFException("Record exceeds the size of " + segments.get(segment).getFileName());
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mappedSegments.set(segment, buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return the paths of the snapshot files, the oldest first
+     */
+    private List<Path> listSnapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(SNAPSHOT_PREFIX)
+                            && p.getFileName().toString().endsWith(SNAPSHOT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Writes a record to the active segment at the given offset
+     */
+    void write(ByteBuffer record, long offset) throws IOException {
+        while (record.hasRemaining())
+            activeChannel.write(record, offset + record.position());
+    }
+
+    private void openActiveSegment() throws IOException {
+        activeChannel = FileChannel.open(segments.get(segments.size() - 1),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(int index) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private static byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Block deserialize(byte[] data) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (Block) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Stored record is not a block", e);
+        }
+    }
+}
@@ -2,19 +2,48 @@ package BlockChain;
 
 import Cryptography.CryptoUtils;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.math.BigInteger;
+import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * This class contains a list of blocks and a methods to:
  * -> verify the validity of the chain that is stored
  * -> add valid blocks to the chain
- *
+ * <p>
+ * The list is the chain with the most cumulative work. Valid blocks that compete with it (forks)
+ * are kept as branches, and blocks whose parent is still unknown are kept as orphans.
+ * </p>
  */
-public class Blockchain implements Serializable {
+public final class Blockchain implements Serializable {
+    // Signatures of blocks that were already verified (shared by all the chains of this peer)
+    static final SignatureCache VERIFIED_SIGNATURES = new SignatureCache(Constants.SIGNATURE_CACHE_SIZE);
+
     private List<Block> blockchain = new ArrayList<>();
     private Block lastBlock;
+    // Number of blocks (from the first) that were already validated. It is transient,
+    // so that a blockchain received from another peer is always validated again
+    private transient int validatedHeight;
+    // State of the auctions derived from the chain (rebuilt from the blocks when it is missing)
+    private transient AuctionState auctionState;
+    // Index hash -> height of the blocks in the chain (rebuilt from the blocks when it is missing)
+    private transient Map<String, Integer> heightByHash;
+    // chainWork[i] = cumulative work of the blocks 0..i (built with the index above)
+    private transient List<BigInteger> chainWork;
+    // Valid blocks that are not in the chain: competing branches (hash -> block) and orphans (blocks
+    // whose previous block is unknown, waiting for it)
+    private transient Map<String, SideBlock> sideBlocks;
+    private transient LinkedHashMap<String, Block> orphans;
+    private transient ReorgListener reorgListener;
+    // Durable storage of the blocks (null if the chain only lives in memory, e.g. received from a peer)
+    private transient BlockStore store;
+    // Keys used to sign (and check) the snapshots of the auction state kept in the store
+    private transient PrivateKey snapshotPrivateKey;
+    private transient PublicKey snapshotPublicKey;
 
     /**
      * Default constructor
@@ -28,6 +57,43 @@ public class Blockchain implements Serializable {
      */
     public Blockchain(ArrayList<Block> blockChainList){
         this.blockchain = blockChainList;
+        if (!blockChainList.isEmpty())
+            this.lastBlock = blockChainList.get(blockChainList.size() - 1);
+    }
+
+    /**
+     * Constructor that loads the blocks kept in a block store, and stores there every
+     * block that is added afterward.
+     * <p>
+     * The stored blocks were validated before they were written (and each record is checked
+     * against its CRC when the store is opened), so they are not validated again.
+     * </p>
+     * @param store block store where the chain is persisted
+     * @throws IOException if the stored blocks can't be read
+     */
+    public Blockchain(BlockStore store) throws IOException {
+        this(store, null, null);
+    }
+
+    /**
+     * Constructor that loads the blocks kept in a block store (see {@link #Blockchain(BlockStore)}),
+     * and keeps signed snapshots of the auction state there every {@link Constants#SNAPSHOT_INTERVAL} blocks.
+     * <p>
+     * The auction state is loaded from the latest valid snapshot (signed with {@code publicKey}), and only
+     * the blocks after it are replayed. Without a usable snapshot it is rebuilt from the whole chain.
+     * </p>
+     * @param store      block store where the chain is persisted
+     * @param privateKey private key used to sign the snapshots
+     * @param publicKey  public key used to check the snapshots
+     * @throws IOException if the stored blocks can't be read
+     */
+    public Blockchain(BlockStore store, PrivateKey privateKey, PublicKey publicKey) throws IOException {
+        this(store.readAll());
+        this.store = store;
+        this.validatedHeight = blockchain.size();
+        this.snapshotPrivateKey = privateKey;
+        this.snapshotPublicKey = publicKey;
+        this.auctionState = loadSnapshot();
     }
 
     /* Getter's & Setter's */
@@ -43,103 +109,738 @@ public class Blockchain implements Serializable {
         this.lastBlock = lastBlock;
     }
 
+    public int getValidatedHeight() {
+        return validatedHeight;
+    }
+
+    /**
+     * Returns the state of the auctions, which is updated every time a block is added.
+     * If it doesn't exist yet (e.g. the blockchain was created from a list or received
+     * from another peer) it is rebuilt from the blocks in the chain.
+     * @return the state of the auctions in this blockchain
+     */
+    public synchronized AuctionState getAuctionState() {
+        if (auctionState == null) {
+            AuctionState state = new AuctionState();
+            for (Block b : blockchain)
+                state.apply(b);
+            auctionState = state;
+        }
+        return auctionState;
+    }
+
+    /**
+     * @param blockHash hash of a block
+     * @return the block with that hash, or {@code null} if it isn't in the chain
+     */
+    public synchronized Block getBlockByHash(String blockHash) {
+        int height = getHeight(blockHash);
+        return height < 0 ? null : blockchain.get(height);
+    }
+
+    /**
+     * @param height position of the block in the chain (0 is the first block)
+     * @return the block at that height, or {@code null} if the chain isn't that long
+     */
+    public synchronized Block getBlockAtHeight(int height) {
+        return height >= 0 && height < blockchain.size() ? blockchain.get(height) : null;
+    }
+
+    /**
+     * @param blockHash hash of a block
+     * @return the height of the block with that hash, or -1 if it isn't in the chain
+     */
+    public synchronized int getHeight(String blockHash) {
+        if (blockHash == null) return -1;
+        return getHeightIndex().getOrDefault(blockHash, -1);
+    }
+
+    /**
+     * @param blockHash hash of a block
+     * @return the parent (previous block) of the block with that hash, or {@code null}
+     *         if the block isn't in the chain or is the first block
+     */
+    public synchronized Block getParent(String blockHash) {
+        return getBlockAtHeight(getHeight(blockHash) - 1);
+    }
+
+    /**
+     * Returns the blocks that come after a given block, i.e. what a peer whose
+     * last block is {@code blockHash} is missing
+     * @param blockHash hash of a block (an empty string means that the peer has no blocks)
+     * @return a copy of the blocks after it (in order), or {@code null} if the block isn't in the chain
+     */
+    public synchronized List<Block> getBlocksSince(String blockHash) {
+        return getBlocksSince(blockHash, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns (at most {@code maxBlocks} of) the blocks that come after a given block,
+     * so that a peer that is behind can download them in batches
+     * @param blockHash hash of a block (an empty string means that the peer has no blocks)
+     * @param maxBlocks maximum number of blocks returned
+     * @return a copy of the blocks after it (in order), or {@code null} if the block isn't in the chain
+     */
+    public synchronized List<Block> getBlocksSince(String blockHash, int maxBlocks) {
+        int height = blockHash == null || blockHash.isEmpty() ? -1 : getHeight(blockHash);
+        if (height < 0 && blockHash != null && !blockHash.isEmpty())
+            return null;
+        int end = (int) Math.min(blockchain.size(), (long) height + 1 + maxBlocks);
+        return new ArrayList<>(blockchain.subList(height + 1, end));
+    }
+
+    /**
+     * Returns (at most {@code maxHeaders} of) the headers of the blocks that come after a given block
+     * (see {@link BlockHeader}), that a peer that is behind checks before downloading the blocks
+     * @param blockHash  hash of a block (an empty string means that the peer has no blocks)
+     * @param maxHeaders maximum number of headers returned
+     * @return the headers of the blocks after it (in order), or {@code null} if the block isn't in the chain
+     */
+    public synchronized List<BlockHeader> getHeadersSince(String blockHash, int maxHeaders) {
+        List<Block> blocks = getBlocksSince(blockHash, maxHeaders);
+        if (blocks == null)
+            return null;
+        List<BlockHeader> headers = new ArrayList<>(blocks.size());
+        for (Block b : blocks)
+            headers.add(BlockHeader.of(b));
+        return headers;
+    }
+
     /* Auxiliar methods */
 
     /**
-     * Check's all block's in the  blockchain (starting from the first)
+     * Returns the index hash -> height of the blocks (and the cumulative work of the chain),
+     * building it if it doesn't exist yet (e.g. the blockchain was created from a list or
+     * received from another peer)
+     */
+    private Map<String, Integer> getHeightIndex() {
+        if (heightByHash == null) {
+            Map<String, Integer> index = new HashMap<>();
+            List<BigInteger> work = new ArrayList<>();
+            BigInteger total = BigInteger.ZERO;
+            for (int i = 0; i < blockchain.size(); i++) {
+                index.put(blockchain.get(i).getBlockHash(), i);
+                total = total.add(blockWork(blockchain.get(i)));
+                work.add(total);
+            }
+            chainWork = work;
+            heightByHash = index;
+        }
+        return heightByHash;
+    }
+
+    /**
+     * Check's all block's in the  blockchain (starting from the first), a.k.a. a full audit
+     * of the chain, that is only done on demand (adding a block only validates that block).
      * So, here we’re making three specific checks for every block:
      * (a) The stored hash of the current block is actually what it calculates
      * (b) The hash of the previous block stored in the current block is the hash of the previous block
-     * (c) The current block has been mined (PoW)
+     * (c) The current block has been mined (PoW), with the dificulty required at its height
      * (d) The block has a valid miner Signature
+     * <p>
+     * The chain is locked during the audit (like in {@link #addBlock}), so blocks that arrive
+     * meanwhile wait for it, and the validated height only covers blocks that were checked.
+     * </p>
      * @return True/False -> (a==True) && (b==True) && (c==True) && (d==True)
+     * @see #auditChain()
+     */
+    public synchronized boolean checkCurrentChain(){
+        return checkChainFrom(0);
+    }
+
+    /**
+     * Does a full audit of the chain (see {@link #checkCurrentChain()}) and returns
+     * the first block that failed the checks, with the result of each check.
+     * <p>
+     * The checks that only depend on the block itself ((a), (c) and (d), the expensive ones)
+     * are done for all blocks in parallel, across the available cores. The hash linkage (b) is
+     * checked in a separate (cheap) sequential pass. As in {@link #checkCurrentChain()}, the
+     * chain is locked during the audit.
+     * </p>
+     * @return the result of the audit
+     */
+    public synchronized AuditResult auditChain(){
+        return auditChain(0);
+    }
+
+    /**
+     * Does the checks of {@link #checkCurrentChain()} for the blocks starting at
+     * position {@code start} and updates the validated height of the chain
+     * (to the first block that failed, or to the size of the chain)
+     * @param start position of the first block we are going to check
+     * @return {@code true} if all the checked blocks are valid, {@code false} otherwise
      */
-    public boolean checkCurrentChain(){
-        String prefixString = new String(new char[Constants.DIFFICULTY]).replace('\0', '0');
-        boolean a,b,c,d;
-        a = b = c = d = true;
-        boolean flag = true;
-        for (int i = 0 ; i < blockchain.size() ; i++){
-            String previousHash = i==0 ? "" : blockchain.get(i - 1).getBlockHash();
-            Block currentBlock = blockchain.get(i);
-            byte[] minerSignature = currentBlock.getMinerSignature();
-            PublicKey minerPublicKey = currentBlock.getMinerPublicKey();
-            String blockHeader = currentBlock.getBlockHash() + currentBlock.getPreviousBlockHash()
-                    + currentBlock.getNonce() + currentBlock.getTimestamp() + currentBlock.getTransactions();
-
-            a = currentBlock.getBlockHash().equals(currentBlock.calculateBlockHash());
-            b = previousHash.equals(currentBlock.getPreviousBlockHash());
-            c = currentBlock.getBlockHash().substring(0,Constants.DIFFICULTY).equals(prefixString);
-            d = CryptoUtils.verifySignature(minerPublicKey,blockHeader.getBytes(),minerSignature);
-            flag = a && b && c && d;
-
-            if (!flag){
-                System.out.println("Block [" + i  + "] in the Blockchain failed the check:");
-                System.out.println("   a :" + a );
-                System.out.println("   b :" + b );
-                System.out.println("   c :" + c );
-                System.out.println("   d :" + d );
+    private boolean checkChainFrom(int start){
+        AuditResult result = auditChain(start);
+        if (!result.isValid()) {
+            System.out.print(result);
+            validatedHeight = result.getFailedHeight();
+        } else {
+            validatedHeight = blockchain.size();
+        }
+        return result.isValid();
+    }
+
+    /**
+     * Audits the blocks starting at position {@code start} (see {@link #auditChain()})
+     * @param start position of the first block we are going to check
+     * @return the result of the audit
+     */
+    private AuditResult auditChain(int start){
+        int size = blockchain.size();
+
+        // 1. Hash linkage (b), sequentially
+        int end = size;
+        for (int i = start; i < size; i++) {
+            if (!previousHashAt(i).equals(blockchain.get(i).getPreviousBlockHash())) {
+                end = i;
                 break;
             }
         }
-        return flag;
+
+        // 2. Checks of each block (a), (c) and (d), in parallel (only up to the first linkage failure)
+        int failedHeight = IntStream.rangeClosed(start, Math.min(end, size - 1))
+                .parallel()
+                .filter(i -> !blockIsValidAt(i))
+                .findFirst()
+                .orElse(end);
+
+        if (failedHeight >= size)
+            return new AuditResult(-1, true, true, true, true);
+
+        // Breakdown of the checks of the first block that failed
+        Block failedBlock = blockchain.get(failedHeight);
+        return new AuditResult(failedHeight,
+                hashIsValid(failedBlock),
+                previousHashAt(failedHeight).equals(failedBlock.getPreviousBlockHash()),
+                powIsValid(failedBlock) && difficultyIsValidAt(failedHeight),
+                signatureIsValid(failedBlock, failedBlock.getMinerPublicKey()));
     }
 
     /**
-     * Check if the block we are trying to add to the chain is valid and also check
-     * if the current  chain is valid.If so adds the given block to the blochain
+     * @param i position of a block in the chain
+     * @return the hash that block {@code i} should have as previous hash
+     */
+    private String previousHashAt(int i){
+        return i == 0 ? "" : blockchain.get(i - 1).getBlockHash();
+    }
+
+    /**
+     * @param height position of a block in the chain
+     * @return {@code true} if the block passes the checks that don't depend on the previous hash (a), (c) and (d),
+     *         where (c) also checks that the block has the dificulty required at its height
+     */
+    private boolean blockIsValidAt(int height){
+        Block block = blockchain.get(height);
+        return hashIsValid(block) && difficultyIsValidAt(height) && powIsValid(block)
+                && signatureIsValid(block, block.getMinerPublicKey());
+    }
+
+    /**
+     * @param height position of a block in the chain
+     * @return {@code true} if the block has the dificulty required at its height
+     */
+    private boolean difficultyIsValidAt(int height){
+        return blockchain.get(height).getDifficultyBits() == requiredBitsAt(height);
+    }
+
+    /**
+     * Check if the block we are trying to add to the chain is valid. If so adds the given
+     * block to the blochain.
+     * <p>
+     * Only the new block is validated, since all the blocks before it were already validated
+     * when they were added. The exception are blocks that weren't validated yet (e.g. a chain
+     * created from a list, or received from another peer), which are validated (once) before
+     * the new block. A full audit of the chain can still be done with {@link #checkCurrentChain()}.
+     * </p>
+     * <p>
+     * Where the block goes depends on its previous block (when two peers mine at the same time,
+     * the chain forks):
+     * <ul>
+     *   <li>The last block of the chain: the block is appended to the chain.</li>
+     *   <li>Another known block: the block is part of a competing branch. If that branch has more
+     *       cumulative work than the chain, the chain switches to it (see {@link #reorganize}).</li>
+     *   <li>An unknown block: the block is kept as an orphan until its parent arrives
+     *       (and {@code false} is returned).</li>
+     * </ul>
+     * If the chain has a block store, blocks are persisted before they are added to the chain.
+     * </p>
      * @param block             that we want to add to the blockchain
      * @param minerPublickKey   publick key of the miner that suposedely mined the block
      *
-     * @return {@code true} if  the block was added, {@code false} otherwise
+     * @return {@code true} if  the block was added (to the chain or to a branch), {@code false} otherwise
      */
-    public boolean addBlock(Block block,PublicKey minerPublickKey){
+    public synchronized boolean addBlock(Block block,PublicKey minerPublickKey){
+        if (validatedHeight < blockchain.size() && !checkChainFrom(validatedHeight)) return false;
+
         if (!validateBlock(block,minerPublickKey)) return false;
+        String blockHash = block.getBlockHash();
+        if (getHeight(blockHash) >= 0 || getSideBlocks().containsKey(blockHash)) return false;
 
-        if(!checkCurrentChain()) return false;
-        this.blockchain.add(block);
-        this.lastBlock = block;
-        return true;
+        if (!hasParent(block)) {
+            getOrphans().put(blockHash, block);
+            return false;
+        }
+        boolean added = connectBlock(block);
+        if (added)
+            connectOrphans(blockHash);
+        return added;
+    }
+
+    /**
+     * Registers the listener that is notified when the chain switches to another branch
+     * @param reorgListener listener (or {@code null} to remove it)
+     */
+    public synchronized void setReorgListener(ReorgListener reorgListener){
+        this.reorgListener = reorgListener;
     }
 
     /**
      * Checks if the block received has an argument is valid by:
      * (a) The stored hash of the current block is actually what it calculates
-     * (b) The hash of the last block in the chain is equal to the previous hash of
-     * the block we are trying to add
      * (c) The block has been mined (PoW)
      * (d) The Digital Signature of Miner of the block is valid
+     * <p>
+     * (b), the link to the previous block, decides where the block goes in the chain (see {@link #addBlock}),
+     * and the dificulty required after that block is checked when it is connected (see {@link #connectBlock}).
+     * </p>
      *
      * @param block that we are validating
      * @param minerPublickKey publick key of the miner that suposedely mined the block
      */
     private boolean validateBlock(Block block,PublicKey minerPublickKey){
-        String prefixString = new String(new char[Constants.DIFFICULTY]).replace('\0', '0');
-        String blockHeader =
-                block.getBlockHash() + block.getPreviousBlockHash() + block.getNonce() + block.getTimestamp() + block.getTransactions();
-        byte[] minerSignature = block.getMinerSignature();
-        boolean a,b,c,d;
-        a = b = c = d = true;
+        return hashIsValid(block) && powIsValid(block) && signatureIsValid(block,minerPublickKey);
+    }
+
+    /**
+     * Returns the dificulty (in leading zero bits) that the next block of the chain must have
+     * @return the number of leading zero bits the hash of a block after the last block must have
+     */
+    public synchronized int getNextDifficultyBits(){
+        return requiredBitsAt(blockchain.size());
+    }
+
+    /**
+     * Adds a (valid) block whose previous block is known to the chain (or to its branch),
+     * if it has the dificulty required after its previous block
+     * @return {@code true} if the block was added
+     */
+    private boolean connectBlock(Block block){
+        int requiredBits = requiredBitsAfter(block.getPreviousBlockHash());
+        if (block.getDifficultyBits() != requiredBits) {
+            System.out.println("Block " + block.getBlockHash() + " has dificulty " + block.getDifficultyBits() +
+                    " bits, but " + requiredBits + " bits are required");
+            return false;
+        }
+        return extendsLastBlock(block) ? appendBlock(block) : addToBranch(block);
+    }
+
+    /**
+     * Appends a (valid) block to the end of the chain, persisting it and updating the auction state
+     * @return {@code true} if the block was appended, {@code false} if it couldn't be persisted
+     */
+    private boolean appendBlock(Block block){
+        if (store != null) {
+            try {
+                syncStore();
+                store.append(block);
+            } catch (IOException e) {
+                System.out.println("Could not persist block " + block.getBlockHash() + ": " + e.getMessage());
+                return false;
+            }
+        }
+        applyBlock(block);
+        if (snapshotPrivateKey != null && blockchain.size() % Constants.SNAPSHOT_INTERVAL == 0)
+            takeSnapshot();
+        return true;
+    }
+
+    /**
+     * Appends a (valid) block to the end of the chain in memory (without persisting it),
+     * updating the indexes and the auction state
+     */
+    private void applyBlock(Block block){
+        AuctionState state = getAuctionState();
+        Map<String, Integer> index = getHeightIndex();
+        this.chainWork.add(workAt(blockchain.size() - 1).add(blockWork(block)));
+        this.blockchain.add(block);
+        index.put(block.getBlockHash(), blockchain.size() - 1);
+        this.lastBlock = block;
+        this.validatedHeight = blockchain.size();
+        state.apply(block);
+        pruneSideBlocks();
+    }
+
+    /**
+     * Makes the block store have the same blocks as the chain (it may be behind, or have the blocks
+     * of another branch, if a reorganization failed): the blocks after the last one both have in
+     * common are removed from the store, and the blocks of the chain after it are written
+     * @throws IOException if the store can't be truncated or written
+     */
+    private void syncStore() throws IOException {
+        int common = Math.min(store.size(), blockchain.size());
+        while (common > 0 && store.getHeight(blockchain.get(common - 1).getBlockHash()) != common - 1)
+            common--;
+        store.truncate(common);
+        for (int height = common; height < blockchain.size(); height++)
+            store.append(blockchain.get(height));
+    }
+
+    /**
+     * Stores a signed snapshot of the auction state (after the last block of the chain) in the block store
+     */
+    private void takeSnapshot(){
+        AuctionSnapshot snapshot = AuctionSnapshot.create(getAuctionState(), blockchain.size() - 1,
+                lastBlock.getBlockHash(), snapshotPrivateKey, snapshotPublicKey);
+        try {
+            store.writeSnapshot(snapshot);
+        } catch (IOException e) {
+            System.out.println("Could not store snapshot of the auction state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the auction state from the latest snapshot in the store that is valid (signed with our key,
+     * and taken at a block that is still in the chain), replaying the blocks after it
+     * @return the auction state, or {@code null} if there is no usable snapshot
+     */
+    private AuctionState loadSnapshot(){
+        if (store == null || snapshotPublicKey == null) return null;
+        try {
+            for (AuctionSnapshot snapshot : store.readSnapshots()) {
+                Block snapshotBlock = getBlockAtHeight(snapshot.getHeight());
+                if (snapshotBlock == null || !snapshotBlock.getBlockHash().equals(snapshot.getBlockHash())
+                        || !snapshot.verify(snapshotPublicKey)) {
+                    System.out.println("Ignoring snapshot of the auction state " + snapshot);
+                    continue;
+                }
+                AuctionState state = snapshot.getState();
+                for (int i = snapshot.getHeight() + 1; i < blockchain.size(); i++)
+                    state.apply(blockchain.get(i));
+                return state;
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read snapshots of the auction state: " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Adds a (valid) block whose parent isn't the last block of the chain to the branch it belongs to,
+     * and switches the chain to that branch if it now has more cumulative work than the chain
+     * @return {@code true} if the block was added
+     */
+    private boolean addToBranch(Block block){
+        String parentHash = block.getPreviousBlockHash();
+        SideBlock parent = getSideBlocks().get(parentHash);
+        int parentHeight = parent != null ? parent.height() : getHeight(parentHash);
+        BigInteger parentWork = parent != null ? parent.work() : workAt(parentHeight);
+
+        SideBlock side = new SideBlock(block, parentHeight + 1, parentWork.add(blockWork(block)));
+        sideBlocks.put(block.getBlockHash(), side);
+        if (side.work().compareTo(workAt(blockchain.size() - 1)) > 0)
+            return reorganize(side);
+        return true;
+    }
+
+    /**
+     * Switches the chain to the branch that ends in {@code newTip}: the blocks of the chain after the
+     * fork point are reverted (and kept as a branch, in case it becomes the heaviest again), and the
+     * blocks of the new branch are appended.
+     * <p>
+     * The auction state is updated incrementally, by undoing the reverted blocks and applying the
+     * new ones. It is only rebuilt from the chain if the fork is deeper than what the state remembers.
+     * </p>
+     * <p>
+     * If a block of the branch can't be persisted, the switch is undone (see {@link #restoreChain}),
+     * so the chain is either the old one or the new one, never a part of the branch.
+     * </p>
+     * @param newTip last block of the branch with the most cumulative work
+     * @return {@code true} if the chain switched to the branch
+     */
+    private boolean reorganize(SideBlock newTip){
+        // 1. Blocks of the new branch (from the fork point to the new tip)
+        LinkedList<Block> branch = new LinkedList<>();
+        String hash = newTip.block().getBlockHash();
+        while (sideBlocks.containsKey(hash)) {
+            Block b = sideBlocks.get(hash).block();
+            branch.addFirst(b);
+            hash = b.getPreviousBlockHash();
+        }
+        int forkHeight = getHeight(hash);
+        if (forkHeight < 0 && !hash.isEmpty()) return false; // Forked before the pruned part of the branch
 
-        a = block.getBlockHash().equals(block.calculateBlockHash());
-        if (lastBlock != null)
-            b = block.getPreviousBlockHash().equals(lastBlock.getBlockHash());
-        c = block.getBlockHash().substring(0, Constants.DIFFICULTY).equals(prefixString);
-        if (minerSignature == null)
-            d = false;
-        else
-            d = CryptoUtils.verifySignature(minerPublickKey,blockHeader.getBytes(),minerSignature);
+        // 2. Revert the blocks after the fork point
+        if (store != null) {
+            try {
+                store.truncate(forkHeight + 1);
+            } catch (IOException e) {
+                System.out.println("Could not truncate block store: " + e.getMessage());
+                return false;
+            }
+        }
+        List<Block> reverted = new ArrayList<>(blockchain.subList(forkHeight + 1, blockchain.size()));
+        AuctionState state = getAuctionState();
+        boolean rebuildState = false;
+        for (int height = blockchain.size() - 1; height > forkHeight; height--) {
+            Block b = blockchain.get(height);
+            rebuildState = rebuildState || !state.revert(b);
+            heightByHash.remove(b.getBlockHash());
+            sideBlocks.put(b.getBlockHash(), new SideBlock(b, height, chainWork.get(height)));
+        }
+        blockchain.subList(forkHeight + 1, blockchain.size()).clear();
+        chainWork.subList(forkHeight + 1, chainWork.size()).clear();
+        lastBlock = blockchain.isEmpty() ? null : blockchain.get(blockchain.size() - 1);
+        if (rebuildState)
+            auctionState = null;
 
-        return a && b && c && d;
+        // 3. Apply the blocks of the new branch (they only leave the branches once all are in the chain)
+        for (Block b : branch) {
+            if (!appendBlock(b)) {
+                restoreChain(forkHeight, reverted);
+                return false;
+            }
+        }
+        for (Block b : branch)
+            sideBlocks.remove(b.getBlockHash());
+        System.out.println("Chain reorganized at height " + (forkHeight + 1) + ": " +
+                reverted.size() + " block(s) reverted, " + branch.size() + " block(s) applied");
+
+        if (reorgListener != null)
+            reorgListener.onReorganize(reverted, branch);
+        return true;
+    }
+
+    /**
+     * Undoes a reorganization that failed: the blocks of the branch that were applied go back to the
+     * branches, and the reverted blocks are put back in the chain (and in the block store)
+     * @param forkHeight height of the last block both branches have in common
+     * @param reverted   blocks that were after the fork point, in chain order
+     */
+    private void restoreChain(int forkHeight, List<Block> reverted){
+        Map<String, Integer> index = getHeightIndex();
+        for (int height = blockchain.size() - 1; height > forkHeight; height--)
+            index.remove(blockchain.get(height).getBlockHash());
+        blockchain.subList(forkHeight + 1, blockchain.size()).clear();
+        chainWork.subList(forkHeight + 1, chainWork.size()).clear();
+        lastBlock = blockchain.isEmpty() ? null : blockchain.get(blockchain.size() - 1);
+        auctionState = null; // Rebuilt from the restored chain
+
+        for (Block b : reverted) {
+            sideBlocks.remove(b.getBlockHash());
+            applyBlock(b);
+        }
+        try {
+            if (store != null) syncStore();
+        } catch (IOException e) {
+            // The missing blocks are written before the next block is appended
+            System.out.println("Could not restore block store after failed reorganization: " + e.getMessage());
+        }
+        System.out.println("Chain reorganization at height " + (forkHeight + 1) + " failed, kept the previous chain");
+    }
+
+    /**
+     * Adds the orphans that were waiting for a block (and, recursively, the orphans
+     * waiting for those) to the chain
+     * @param blockHash hash of the block that was added
+     */
+    private void connectOrphans(String blockHash){
+        Deque<String> parents = new ArrayDeque<>();
+        parents.add(blockHash);
+        while (!parents.isEmpty()) {
+            String parentHash = parents.poll();
+            List<Block> children = new ArrayList<>();
+            for (Block orphan : getOrphans().values()) {
+                if (parentHash.equals(orphan.getPreviousBlockHash()))
+                    children.add(orphan);
+            }
+            for (Block child : children) {
+                orphans.remove(child.getBlockHash());
+                boolean added = connectBlock(child);
+                if (added) parents.add(child.getBlockHash());
+            }
+        }
+    }
+
+    /**
+     * Discards the branches that forked too long ago to ever replace the chain
+     * (more than {@link Constants#MAX_REORG_DEPTH} blocks below the last block)
+     */
+    private void pruneSideBlocks(){
+        int minHeight = blockchain.size() - Constants.MAX_REORG_DEPTH;
+        getSideBlocks().values().removeIf(side -> side.height() < minHeight);
+    }
+
+    private boolean extendsLastBlock(Block block){
+        String lastHash = lastBlock != null ? lastBlock.getBlockHash() : "";
+        return lastHash.equals(block.getPreviousBlockHash());
+    }
+
+    /**
+     * @return {@code true} if the previous block of the block is known (in the chain or in a branch),
+     *         or it is a first block (i.e. it competes with the first block of the chain)
+     */
+    private boolean hasParent(Block block){
+        String parentHash = block.getPreviousBlockHash();
+        return parentHash.isEmpty() || getHeight(parentHash) >= 0 || getSideBlocks().containsKey(parentHash);
+    }
+
+    /**
+     * @param height height of a block in the chain (-1 means before the first block)
+     * @return the cumulative work of the chain up to that block
+     */
+    private BigInteger workAt(int height){
+        getHeightIndex();
+        return height < 0 ? BigInteger.ZERO : chainWork.get(height);
+    }
+
+    /**
+     * Work of a block, i.e. the expected number of hashes to mine it (2^difficulty bits)
+     */
+    static BigInteger blockWork(Block block){
+        return BigInteger.ONE.shiftLeft(block.getDifficultyBits());
+    }
+
+    /**
+     * Dificulty required for the block at a given height of the chain:
+     * <ul>
+     *   <li>The first block has {@link Constants#INITIAL_DIFFICULTY_BITS}.</li>
+     *   <li>Every {@link Constants#RETARGET_INTERVAL} blocks, the dificulty is adjusted according to how
+     *       long the last {@code RETARGET_INTERVAL} blocks took (see {@link #retarget}).</li>
+     *   <li>Otherwise, the block has the same dificulty as the previous block.</li>
+     * </ul>
+     * @param height height of the block (it can be the height right after the last block)
+     * @return the number of leading zero bits the hash of the block must have
+     */
+    private int requiredBitsAt(int height){
+        if (height == 0) return Constants.INITIAL_DIFFICULTY_BITS;
+        Block parent = blockchain.get(height - 1);
+        if (height % Constants.RETARGET_INTERVAL != 0) return parent.getDifficultyBits();
+        Block first = blockchain.get(height - Constants.RETARGET_INTERVAL);
+        return retarget(parent.getDifficultyBits(), first.getTimestamp(), parent.getTimestamp());
+    }
+
+    /**
+     * Dificulty required for a block whose previous block is {@code parentHash},
+     * which may be in the chain or in a branch (see {@link #requiredBitsAt(int)})
+     * @return the number of leading zero bits, or -1 if the blocks it depends on were pruned
+     */
+    private int requiredBitsAfter(String parentHash){
+        if (parentHash.isEmpty()) return Constants.INITIAL_DIFFICULTY_BITS;
+        int parentHeight = getHeight(parentHash);
+        if (parentHeight >= 0) return requiredBitsAt(parentHeight + 1);
+
+        SideBlock parent = getSideBlocks().get(parentHash);
+        Block parentBlock = parent.block();
+        if ((parent.height() + 1) % Constants.RETARGET_INTERVAL != 0) return parentBlock.getDifficultyBits();
+        Block first = parentBlock;
+        for (int i = 1; i < Constants.RETARGET_INTERVAL && first != null; i++)
+            first = findBlock(first.getPreviousBlockHash());
+        if (first == null) return -1;
+        return retarget(parentBlock.getDifficultyBits(), first.getTimestamp(), parentBlock.getTimestamp());
+    }
+
+    /**
+     * Adjusts the dificulty after {@link Constants#RETARGET_INTERVAL} blocks: each bit doubles (or halves) the
+     * expected work, so the dificulty changes by log2(expected time / actual time) bits, at most
+     * {@link Constants#MAX_RETARGET_STEP_BITS} per adjustment, and within the dificulty bounds.
+     * @param bits           dificulty of the last blocks
+     * @param firstTimestamp timestamp of the first of the last {@code RETARGET_INTERVAL} blocks
+     * @param lastTimestamp  timestamp of the last block
+     * @return the dificulty of the next blocks
+     */
+    static int retarget(int bits, long firstTimestamp, long lastTimestamp){
+        long actual = Math.max(1, lastTimestamp - firstTimestamp);
+        long expected = (Constants.RETARGET_INTERVAL - 1) * Constants.TARGET_BLOCK_INTERVAL_MS;
+        int step = (int) Math.round(Math.log((double) expected / actual) / Math.log(2));
+        step = Math.max(-Constants.MAX_RETARGET_STEP_BITS, Math.min(Constants.MAX_RETARGET_STEP_BITS, step));
+        return Math.max(Constants.MIN_DIFFICULTY_BITS, Math.min(Constants.MAX_DIFFICULTY_BITS, bits + step));
+    }
+
+    /**
+     * @return the block with the given hash, in the chain or in a branch ({@code null} if it's unknown)
+     */
+    private Block findBlock(String blockHash){
+        SideBlock side = getSideBlocks().get(blockHash);
+        return side != null ? side.block() : getBlockByHash(blockHash);
+    }
+
+    private Map<String, SideBlock> getSideBlocks(){
+        if (sideBlocks == null)
+            sideBlocks = new HashMap<>();
+        return sideBlocks;
+    }
+
+    private LinkedHashMap<String, Block> getOrphans(){
+        if (orphans == null) {
+            orphans = new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Block> eldest) {
+                    return size() > Constants.MAX_ORPHAN_BLOCKS;
+                }
+            };
+        }
+        return orphans;
+    }
+
+    /**
+     * Checks if the stored hash of a block is the hash of its (canonical) header.
+     * Blocks whose header can't be encoded (e.g. the previous hash isn't a valid
+     * hash) are considered invalid.
+     * @param block block we are checking
+     * @return {@code true} if the stored hash matches the header, {@code false} otherwise
+     */
+    private static boolean hashIsValid(Block block){
+        try {
+            String computedHash = Utils.getHexString(CryptoUtils.getSha256Digest().digest(block.getHeaderBytes()));
+            return computedHash.equals(block.getBlockHash());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if the block has been mined, i.e. if its hash has (at least) the number of leading zero bits
+     * in its header (which must not be lower than {@link Constants#MIN_DIFFICULTY_BITS}). Whether that is
+     * the dificulty required at its height is checked separately.
+     * @param block block we are checking
+     * @return {@code true} if the block has been mined, {@code false} otherwise
+     */
+    private static boolean powIsValid(Block block){
+        if (block.getBlockHash() == null || block.getDifficultyBits() < Constants.MIN_DIFFICULTY_BITS)
+            return false;
+        try {
+            return Utils.countLeadingZeroBits(Utils.hashToBytes(block.getBlockHash())) >= block.getDifficultyBits();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if the miner signature of a block is a valid signature of its (canonical) header
+     * (signatures that were already verified are looked up in a cache, see {@link SignatureCache})
+     * @param block          block we are checking
+     * @param minerPublicKey public key of the miner that supposedly mined the block
+     * @return {@code true} if the signature is valid, {@code false} otherwise
+     */
+    private static boolean signatureIsValid(Block block, PublicKey minerPublicKey){
+        byte[] minerSignature = block.getMinerSignature();
+        if (minerSignature == null || minerPublicKey == null)
+            return false;
+        try {
+            return VERIFIED_SIGNATURES.verify(minerPublicKey,block.getHeaderBytes(),minerSignature);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
     }
 
     /**
      * Returns a set of available auction IDs based on the current state of the blockchain.
      * <p>
-     * This method iterates through all blocks in the blockchain and examines their transactions
-     * to determine which auctions are currently available. An auction is considered available
-     * if it has been {@code START_AUCTION} and has not been {@code CLOSE_AUCTION} afterward —
-     * even if {@code CLOSE_AUCTION} appears before {@code START_AUCTION} in the chain.
+     * An auction is considered available if it has been {@code START_AUCTION} and has not been
+     * {@code CLOSE_AUCTION} afterward — even if {@code CLOSE_AUCTION} appears before
+     * {@code START_AUCTION} in the chain. The result comes from the auction state, that
+     * is kept up to date as blocks are added (see {@link #getAuctionState()}).
      * </p>
      *
      * @return A set containing the IDs of auctions that are currently available
@@ -149,27 +850,18 @@ public class Blockchain implements Serializable {
      *           is handled by the {@code ClientHandler} class. When a client submits a transaction,
      *           {@code ClientHandler} checks whether it is valid within the current state of the system.
      */
-    public Set<String> getAvailableAuctions() {
-        Set<String> ans = new HashSet<>();
-        Set<String> closed = new HashSet<>();
-
-        for (Block b : blockchain) {
-            ArrayList<Transaction> transactionsInBlock = b.getTransactions();
-            for (Transaction t : transactionsInBlock) {
-                String auctionId = t.getAuctionId();
-                Transaction.TransactionType auctionType = t.getType();
-
-                if (auctionType == Transaction.TransactionType.CLOSE_AUCTION) {
-                    closed.add(auctionId); // Mark as closed, regardless of previous START
-                    ans.remove(auctionId); // Ensure it's no longer available
-                } else if (auctionType == Transaction.TransactionType.START_AUCTION) {
-                    if (!closed.contains(auctionId)) {
-                        ans.add(auctionId); // Only add if not previously closed
-                    }
-                }
-            }
-        }
-        return ans;
+    public synchronized Set<String> getAvailableAuctions() {
+        return getAuctionState().getOpenAuctions();
+    }
+
+    /**
+     * Checks if an auction is available (started and not closed), without
+     * going through the chain
+     * @param auctionId id of the auction (owner:auctionName)
+     * @return {@code true} if the auction is available, {@code false} otherwise
+     */
+    public synchronized boolean isAuctionAvailable(String auctionId) {
+        return getAuctionState().isOpen(auctionId);
     }
 
     /**
@@ -182,33 +874,93 @@ public class Blockchain implements Serializable {
      * <ol>
      *   <li>Checks if the specified auction ID exists in the set of currently available auctions.</li>
      *   <li>If the auction is not available, the method returns {@code null}.</li>
-     *   <li>If available, iterates over the blockchain to find all {@code PLACE_BID} transactions
-     *       related to the specified auction ID.</li>
-     *   <li>For each matching bid, adds a string entry in the format {@code "username:bidAmount"} to the result set.</li>
+     *   <li>If available, goes through the bid book of the auction (all {@code PLACE_BID} transactions
+     *       in the blockchain related to the specified auction ID).</li>
+     *   <li>For each bid, adds a string entry in the format {@code "username:bidAmount"} to the result set.</li>
      * </ol>
      *
      * @param auctionId the ID of the auction for which bids are to be retrieved
      *                  of auctionId = "owner:auctionName"
      * @return a {@link Set} of bid strings in the format {@code "username:bidAmount"}, or {@code null} if the auction ID is not valid
      */
-    public Set<String> getAllBids(String auctionId){
+    public synchronized Set<String> getAllBids(String auctionId){
         Set<String> ans = new HashSet<>();
-        Set<String> aux = getAvailableAuctions();
 
         // 1. check if exists an available auction with this auctionId
-        if (!aux.contains(auctionId)) return null;
+        if (!isAuctionAvailable(auctionId)) return null;
 
         // 2. Get all the PLACE_BID made for auction with auctionId
-        for (Block b : blockchain){
-            ArrayList<Transaction> transactionsInBlock = b.getTransactions();
-            for (Transaction t : transactionsInBlock) {
-                String aucId = t.getAuctionId();
-                if(aucId.equals(auctionId) && t.getType().equals(Transaction.TransactionType.PLACE_BID))
-                    ans.add(t.getUsername() + ":" + t.getBidAmount() );
-            }
+        BidBook bids = getAuctionState().getBidBook(auctionId);
+        if (bids != null) {
+            for (Transaction t : bids.getHistory())
+                ans.add(t.getUsername() + ":" + t.getBidAmount());
         }
         return ans;
     }
+
+    /**
+     * Returns the bids made (in the blockchain) to an auction, with the current highest bid
+     * @param auctionId id of the auction (owner:auctionName)
+     * @return the bid book of the auction, or {@code null} if no bids were made to it
+     */
+    public synchronized BidBook getBidBook(String auctionId){
+        return getAuctionState().getBidBook(auctionId);
+    }
+
+    /**
+     * Listener that is notified when the chain switches to another branch
+     * (e.g. to put the transactions of the reverted blocks back in the mempool)
+     */
+    public interface ReorgListener {
+        /**
+         * @param reverted blocks that were removed from the chain (in chain order)
+         * @param applied  blocks that were added to the chain (in chain order)
+         */
+        void onReorganize(List<Block> reverted, List<Block> applied);
+    }
+
+    /**
+     * Block of a branch that isn't the chain, with its height and the cumulative work of its branch
+     */
+    private record SideBlock(Block block, int height, BigInteger work) {
+    }
+
+    /**
+     * Result of an audit of the chain: the position of the first block that
+     * failed the checks (-1 if all blocks are valid) and the result of each
+     * check (a), (b), (c) and (d) for that block.
+     */
+    public static class AuditResult {
+        private final int failedHeight;
+        private final boolean a, b, c, d;
+
+        AuditResult(int failedHeight, boolean a, boolean b, boolean c, boolean d) {
+            this.failedHeight = failedHeight;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.d = d;
+        }
+
+        public boolean isValid() { return failedHeight < 0; }
+        public int getFailedHeight() { return failedHeight; }
+        public boolean hashIsValid() { return a; }
+        public boolean linkIsValid() { return b; }
+        public boolean powIsValid() { return c; }
+        public boolean signatureIsValid() { return d; }
+
+        @Override
+        public String toString() {
+            if (isValid())
+                return "All blocks in the Blockchain passed the check\n";
+            return "Block [" + failedHeight  + "] in the Blockchain failed the check:\n" +
+                    "   a :" + a + "\n" +
+                    "   b :" + b + "\n" +
+                    "   c :" + c + "\n" +
+                    "   d :" + d + "\n";
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder ans = new StringBuilder();
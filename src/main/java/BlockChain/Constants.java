@@ -5,8 +5,91 @@ package BlockChain;
  */
 public class Constants {
     /**
-     * Defines the dificulty of mining.
-     * Basicaly defines the number of initial zeros of a valid hash of a block
+     * Defines the initial dificulty of mining.
+     * Basicaly defines the number of initial zeros of a valid hash of the first blocks
+     * (afterward the difficulty is adjusted, see {@link #RETARGET_INTERVAL})
      */
     public static final int DIFFICULTY = 5;
+
+    /**
+     * Dificulty (number of leading zero bits of a valid block hash) of the first
+     * blocks of the chain (each initial zero of the hexadecimal hash is 4 bits)
+     */
+    public static final int INITIAL_DIFFICULTY_BITS = DIFFICULTY * 4;
+
+    /**
+     * Lower and upper bounds of the dificulty (in leading zero bits)
+     */
+    public static final int MIN_DIFFICULTY_BITS = 8;
+    public static final int MAX_DIFFICULTY_BITS = 64;
+
+    /**
+     * Number of blocks between two adjustments of the dificulty. Every {@code RETARGET_INTERVAL}
+     * blocks the dificulty is adjusted so that blocks take about {@link #TARGET_BLOCK_INTERVAL_MS}
+     * to mine (each extra bit doubles the expected work)
+     */
+    public static final int RETARGET_INTERVAL = 10;
+
+    /**
+     * Time (in milliseconds) that we want a block to take to be mined
+     */
+    public static final long TARGET_BLOCK_INTERVAL_MS = 10_000;
+
+    /**
+     * Maximum change (in bits) of the dificulty in a single adjustment
+     */
+    public static final int MAX_RETARGET_STEP_BITS = 2;
+
+    /**
+     * Version of the canonical binary encoding of Block headers and Transactions
+     * (it is the first field of every encoding, so that the format can evolve)
+     */
+    public static final int ENCODING_VERSION = 3;
+
+    /**
+     * Defines the default number of worker threads a Miner uses
+     * to search the nonce space (one per available core)
+     */
+    public static final int MINING_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Maximum number of blocks that can be reverted when the chain switches
+     * to a heavier branch (blocks that are deeper than this are considered final)
+     */
+    public static final int MAX_REORG_DEPTH = 64;
+
+    /**
+     * Maximum number of blocks (whose previous block is unknown) that are
+     * kept waiting for their parent
+     */
+    public static final int MAX_ORPHAN_BLOCKS = 128;
+
+    /**
+     * Number of blocks between two snapshots of the auction state
+     * (kept by peers that store their chain, see {@link AuctionSnapshot})
+     */
+    public static final int SNAPSHOT_INTERVAL = 100;
+
+    /**
+     * Maximum number of verified block signatures that are remembered
+     * (so that the same block isn't verified again, see {@link SignatureCache})
+     */
+    public static final int SIGNATURE_CACHE_SIZE = 10_000;
+
+    /**
+     * Limits of the blocks assembled from the mempool (see {@link BlockAssemblyPolicy}): a block has at most
+     * {@code MAX_TRANSACTIONS_PER_BLOCK} transactions, and it is mined as soon as {@code MIN_BLOCK_FILL}
+     * transactions are waiting, or when a transaction has waited {@code MAX_BLOCK_WAIT_MS}
+     */
+    public static final int MAX_TRANSACTIONS_PER_BLOCK = 500;
+    public static final int MIN_BLOCK_FILL = 3;
+    public static final long MAX_BLOCK_WAIT_MS = 2_000;
+
+    /**
+     * Limits of the messages used to sync the chain with another peer: a peer that is behind
+     * downloads up to {@code MAX_HEADERS_PER_MESSAGE} headers (see {@link BlockHeader}), and then
+     * the blocks in batches of up to {@code MAX_BLOCKS_PER_MESSAGE}
+     */
+    public static final int MAX_HEADERS_PER_MESSAGE = 2_000;
+    public static final int MAX_BLOCKS_PER_MESSAGE = 100;
 }
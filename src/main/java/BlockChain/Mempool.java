@@ -0,0 +1,155 @@
+package BlockChain;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Class that represents the pool of transactions (a.k.a. mempool) that were
+ * accepted by a peer but are not in the blockchain yet.
+ * <p>
+ * Transactions are indexed by transactionId (which also removes duplicates) and
+ * by auctionId, in concurrent maps, so that threads that submit transactions at the
+ * same time don't contend on a single lock. After a block is accepted, only the
+ * transactions that are actually in that block are removed from the pool.
+ * </p>
+ */
+public class Mempool {
+    /**
+     * Order in which transactions are selected to be part of a block:
+     * the oldest transactions first (ties are broken by transactionId)
+     */
+    public static final Comparator<Transaction> PRIORITY =
+            Comparator.comparingLong(Transaction::getTimestamp).thenComparing(Transaction::getTransactionId);
+
+    private final ConcurrentHashMap<String, Transaction> byId = new ConcurrentHashMap<>();        // transactionId -> transaction
+    private final ConcurrentHashMap<String, Set<Transaction>> byAuction = new ConcurrentHashMap<>(); // auctionId -> transactions
+
+    /**
+     * Adds a transaction to the pool (if it isn't already there). A {@code START_AUCTION}
+     * is only added if there is no other {@code START_AUCTION} of the same auction in the pool.
+     * @param t transaction we are adding
+     * @return {@code true} if the transaction was added, {@code false} otherwise
+     */
+    public boolean add(Transaction t){
+        boolean[] added = {false};
+        // compute() is atomic for each auctionId, so concurrent START_AUCTION's can't both be added
+        byAuction.compute(t.getAuctionId(), (auctionId, transactions) -> {
+            if (transactions == null)
+                transactions = ConcurrentHashMap.newKeySet();
+            if (t.getType() == Transaction.TransactionType.START_AUCTION && containsType(transactions, t.getType()))
+                return transactions;
+            if (byId.putIfAbsent(t.getTransactionId(), t) == null) {
+                transactions.add(t);
+                added[0] = true;
+            }
+            return transactions;
+        });
+        return added[0];
+    }
+
+    /**
+     * Removes a transaction from the pool
+     * @param t transaction we are removing
+     * @return {@code true} if the transaction was in the pool, {@code false} otherwise
+     */
+    public boolean remove(Transaction t){
+        if (byId.remove(t.getTransactionId()) == null)
+            return false;
+        byAuction.computeIfPresent(t.getAuctionId(), (auctionId, transactions) -> {
+            transactions.remove(t);
+            return transactions.isEmpty() ? null : transactions;
+        });
+        return true;
+    }
+
+    /**
+     * Removes from the pool the transactions that are part of a block
+     * (transactions that arrived while the block was mined stay in the pool)
+     * @param block block that was added to the blockchain
+     */
+    public void removeIncluded(Block block){
+        for (Transaction t : block.getTransactions())
+            remove(t);
+    }
+
+    /**
+     * Removes all transactions that match a condition
+     * @param condition condition of the transactions we are removing
+     */
+    public void removeIf(Predicate<Transaction> condition){
+        for (Transaction t : byId.values()) {
+            if (condition.test(t))
+                remove(t);
+        }
+    }
+
+    /**
+     * Selects the transactions that will be part of the next block, by priority (see {@link #PRIORITY})
+     * @param maxTransactions maximum number of transactions of the block
+     * @return the selected transactions (they stay in the pool until the block is accepted)
+     */
+    public ArrayList<Transaction> selectForBlock(int maxTransactions){
+        ArrayList<Transaction> selected = new ArrayList<>();
+        byId.values().stream()
+                .sorted(PRIORITY)
+                .limit(maxTransactions)
+                .forEach(selected::add);
+        return selected;
+    }
+
+    /* Queries */
+
+    public boolean contains(String transactionId){
+        return byId.containsKey(transactionId);
+    }
+
+    /**
+     * @param auctionId id of the auction (owner:auctionName)
+     * @return {@code true} if there is any transaction of the auction in the pool
+     */
+    public boolean hasAuction(String auctionId){
+        return byAuction.containsKey(auctionId);
+    }
+
+    /**
+     * @param auctionId id of the auction (owner:auctionName)
+     * @param type      type of transaction
+     * @return {@code true} if there is a transaction of the given type of the auction in the pool
+     */
+    public boolean hasTransaction(String auctionId, Transaction.TransactionType type){
+        Set<Transaction> transactions = byAuction.get(auctionId);
+        return transactions != null && containsType(transactions, type);
+    }
+
+    public int size(){
+        return byId.size();
+    }
+
+    public boolean isEmpty(){
+        return byId.isEmpty();
+    }
+
+    /**
+     * @return a copy of the transactions in the pool (by priority)
+     */
+    public ArrayList<Transaction> getTransactions(){
+        return selectForBlock(Integer.MAX_VALUE);
+    }
+
+    private static boolean containsType(Set<Transaction> transactions, Transaction.TransactionType type){
+        for (Transaction t : transactions) {
+            if (t.getType() == type)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return getTransactions().toString();
+    }
+}
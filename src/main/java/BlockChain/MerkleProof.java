@@ -0,0 +1,128 @@
+package BlockChain;
+
+import Cryptography.CryptoUtils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Proof that a transaction is part of a block, that can be checked
+ * without having the whole block (only its header).
+ * <p>
+ * It contains the encoded block header (see {@link Block#getHeaderBytes()}) and the
+ * Merkle path of the transaction id up to the Merkle root stored in that header.
+ * </p>
+ */
+public class MerkleProof implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String transactionId;
+    private final byte[] blockHeader;
+    private final Path path;
+
+    /**
+     * Constructor for a MerkleProof
+     * @param transactionId id of the transaction we are proving is in the block
+     * @param blockHeader   encoded header of the block
+     * @param path          Merkle path of the transaction id up to the root
+     */
+    public MerkleProof(String transactionId, byte[] blockHeader, Path path) {
+        this.transactionId = transactionId;
+        this.blockHeader = blockHeader;
+        this.path = path;
+    }
+
+    /* Getter's */
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public byte[] getBlockHeader() {
+        return blockHeader;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the hash of the block this proof refers to (the hash of its header)
+     */
+    public String getBlockHash(){
+        return Utils.getHexString(CryptoUtils.getSha256Digest().digest(blockHeader));
+    }
+
+    /**
+     * Checks that the transaction id, hashed up the tree with the Merkle path,
+     * results in the Merkle root stored in the block header (the path must have
+     * the length and sides of a leaf of the tree, see {@link MerkleTree#hasTreeShape})
+     * @return {@code true} if the proof is valid, {@code false} otherwise
+     */
+    public boolean verify(){
+        if (blockHeader == null || blockHeader.length < Block.MERKLE_ROOT_OFFSET + Utils.HASH_LENGTH)
+            return false;
+        if (path == null || !MerkleTree.hasTreeShape(path))
+            return false;
+        byte[] id = CryptoUtils.hexStringToByteArray(transactionId);
+        byte[] merkleRoot = Arrays.copyOfRange(blockHeader,
+                Block.MERKLE_ROOT_OFFSET, Block.MERKLE_ROOT_OFFSET + Utils.HASH_LENGTH);
+        return Arrays.equals(MerkleTree.rootFromPath(id, path), merkleRoot);
+    }
+
+    /**
+     * Checks the proof (see {@link #verify()}) and that it refers to the block with the given hash
+     * @param blockHash hash of the block the transaction should be in
+     * @return {@code true} if the proof is valid for that block, {@code false} otherwise
+     */
+    public boolean verify(String blockHash){
+        return getBlockHash().equals(blockHash) && verify();
+    }
+
+    @Override
+    public String toString() {
+        return "{ TransactionId = " + transactionId + ", " +
+                "BlockHash = " + getBlockHash() + ", " +
+                "Path length = " + path.size() + " }";
+    }
+
+    /**
+     * Sibling hashes from a leaf up to the Merkle root, and for each one
+     * if it is on the left (or on the right) of the node we are hashing.
+     * It also has the position of the leaf and the number of leaves of the tree.
+     */
+    public static class Path implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final List<byte[]> siblings;
+        private final List<Boolean> siblingIsLeft;
+        private final int index;     // Position of the leaf
+        private final int leafCount; // Number of leaves (transactions of the block)
+
+        public Path(List<byte[]> siblings, List<Boolean> siblingIsLeft, int index, int leafCount) {
+            this.siblings = new ArrayList<>(siblings);
+            this.siblingIsLeft = new ArrayList<>(siblingIsLeft);
+            this.index = index;
+            this.leafCount = leafCount;
+        }
+
+        public int getIndex(){
+            return index;
+        }
+
+        public int getLeafCount(){
+            return leafCount;
+        }
+
+        public int size(){
+            return siblings.size();
+        }
+
+        public byte[] getSibling(int i){
+            return siblings.get(i);
+        }
+
+        public boolean isLeft(int i){
+            return siblingIsLeft.get(i);
+        }
+    }
+}
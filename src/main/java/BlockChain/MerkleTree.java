@@ -0,0 +1,146 @@
+package BlockChain;
+
+import Cryptography.CryptoUtils;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class with the methods to build a Merkle tree over the transaction ids of a block,
+ * and to build/verify inclusion proofs of a transaction in that tree.
+ * <p>
+ * Each leaf is SHA-256( 0x00 | id ), where id is the hash of the encoded transaction (the transaction
+ * id of honest transactions, see {@link Transaction#getEncoded()}), and each parent is
+ * SHA-256( 0x01 | left | right ). The different prefixes keep an inner node from being taken as a
+ * leaf (and so proved as a transaction). When a level has an odd number of nodes, the last one
+ * is promoted to the next level unchanged (it isn't duplicated).
+ * </p>
+ */
+public class MerkleTree {
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    /**
+     * Computes the Merkle root of a list of transactions
+     * @param  transactions transactions of a block (in block order)
+     * @return the {@link Utils#HASH_LENGTH} bytes of the root (all zeros if there are no transactions)
+     */
+    public static byte[] computeRoot(List<Transaction> transactions){
+        if (transactions.isEmpty())
+            return new byte[Utils.HASH_LENGTH];
+
+        List<byte[]> level = getLeaves(transactions);
+        MessageDigest digest = CryptoUtils.getSha256Digest();
+        while (level.size() > 1)
+            level = nextLevel(level, digest);
+        return level.get(0);
+    }
+
+    /**
+     * Builds the inclusion proof of the transaction at a given position of the list
+     * @param  transactions transactions of a block (in block order)
+     * @param  index        position of the transaction we want to prove
+     * @return the sibling hashes from the leaf up to the root, and on which side each one is
+     */
+    public static MerkleProof.Path buildPath(List<Transaction> transactions, int index){
+        List<byte[]> siblings = new ArrayList<>();
+        List<Boolean> siblingIsLeft = new ArrayList<>();
+
+        int position = index;
+        List<byte[]> level = getLeaves(transactions);
+        MessageDigest digest = CryptoUtils.getSha256Digest();
+        while (level.size() > 1) {
+            int sibling = (index % 2 == 0) ? index + 1 : index - 1;
+            // The last node of an odd level has no sibling (it is promoted)
+            if (sibling < level.size()) {
+                siblings.add(level.get(sibling));
+                siblingIsLeft.add(sibling < index);
+            }
+            level = nextLevel(level, digest);
+            index /= 2;
+        }
+        return new MerkleProof.Path(siblings, siblingIsLeft, position, transactions.size());
+    }
+
+    /**
+     * Computes the root that results from hashing a leaf up the tree with the given path
+     * @param  transactionId raw transaction id of the leaf
+     * @param  path          sibling hashes from the leaf up to the root
+     * @return the resulting root
+     */
+    public static byte[] rootFromPath(byte[] transactionId, MerkleProof.Path path){
+        MessageDigest digest = CryptoUtils.getSha256Digest();
+        byte[] current = hashLeaf(digest, transactionId);
+        for (int i = 0; i < path.size(); i++) {
+            if (path.isLeft(i))
+                current = hashPair(digest, path.getSibling(i), current);
+            else
+                current = hashPair(digest, current, path.getSibling(i));
+        }
+        return current;
+    }
+
+    /**
+     * Checks that a path has the shape of the path of the leaf at its position, in a tree with its
+     * number of leaves: one sibling for each level where the node isn't promoted, on the side given
+     * by the position of the node in that level
+     * @param  path path we are checking
+     * @return {@code true} if the path has the expected length and sides, {@code false} otherwise
+     */
+    public static boolean hasTreeShape(MerkleProof.Path path){
+        int index = path.getIndex();
+        int levelSize = path.getLeafCount();
+        if (index < 0 || index >= levelSize)
+            return false;
+
+        int depth = 0;
+        while (levelSize > 1) {
+            int sibling = (index % 2 == 0) ? index + 1 : index - 1;
+            if (sibling < levelSize) {
+                if (depth >= path.size() || path.isLeft(depth) != (sibling < index))
+                    return false;
+                depth++;
+            }
+            levelSize = (levelSize + 1) / 2;
+            index /= 2;
+        }
+        return depth == path.size();
+    }
+
+    /**
+     * The leaves are built from the hashes of the encoded transactions (not their stored ids, that a
+     * peer could keep after changing a field), so the root commits to every field of every transaction
+     */
+    private static List<byte[]> getLeaves(List<Transaction> transactions){
+        MessageDigest digest = CryptoUtils.getSha256Digest();
+        List<byte[]> leaves = new ArrayList<>(transactions.size());
+        for (Transaction t : transactions)
+            leaves.add(hashLeaf(digest, digest.digest(t.getEncoded())));
+        return leaves;
+    }
+
+    private static byte[] hashLeaf(MessageDigest digest, byte[] transactionId){
+        digest.update(LEAF_PREFIX);
+        digest.update(transactionId);
+        return digest.digest();
+    }
+
+    private static List<byte[]> nextLevel(List<byte[]> level, MessageDigest digest){
+        List<byte[]> parents = new ArrayList<>((level.size() + 1) / 2);
+        for (int i = 0; i < level.size(); i += 2) {
+            if (i + 1 < level.size())
+                parents.add(hashPair(digest, level.get(i), level.get(i + 1)));
+            else
+                parents.add(level.get(i));
+        }
+        return parents;
+    }
+
+    private static byte[] hashPair(MessageDigest digest, byte[] left, byte[] right){
+        digest.update(NODE_PREFIX);
+        digest.update(left);
+        digest.update(right);
+        return digest.digest();
+    }
+}
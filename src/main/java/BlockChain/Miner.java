@@ -3,32 +3,62 @@ package BlockChain;
 import Cryptography.CryptoUtils;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class represents a Miner, that will mine blocks with
  * Proof-Of-Work consensus algorithm
  */
 public class Miner implements Serializable {
+    private static final int TEMPLATE_CHECK_INTERVAL = 1 << 14; // attempts between checks of the template
     private Block minedBlock;
     private PrivateKey privateKey;
     public  PublicKey publicKey;
-    private boolean stopMining; // indicates if a miner has to stop mining
+    private transient volatile boolean stopMining; // indicates if a miner has to stop mining
+    private int miningThreads;                      // number of workers that search the nonce space
+    private transient ExecutorService miningPool;   // pool of the mining workers (created on first use)
+    private transient volatile double lastHashRate; // hashes per second of the last Proof-Of-Work
+    private transient volatile Block template;      // block being mined (replaced by updateTemplate)
 
     /**
      * Default Constructor of a Miner:
      * --> Create Key pair for this miner
      */
     public Miner (){
+        this(Constants.MINING_THREADS);
+    }
+
+    /**
+     * Constructor of a Miner that uses a given number of mining threads
+     * --> Create Key pair for this miner
+     * @param miningThreads number of worker threads used in Proof-Of-Work
+     */
+    public Miner (int miningThreads){
+        this.miningThreads = Math.max(1, miningThreads);
         createKeyPair();
     }
 
     public Miner (PrivateKey privateKey, PublicKey publicKey){
+        this(privateKey, publicKey, Constants.MINING_THREADS);
+    }
+
+    public Miner (PrivateKey privateKey, PublicKey publicKey, int miningThreads){
         this.privateKey = privateKey;
         this.publicKey = publicKey;
+        this.miningThreads = Math.max(1, miningThreads);
     }
 
     /* Getter's */
@@ -39,6 +69,17 @@ public class Miner implements Serializable {
     // JUST FOR TESTING PURPOSES (SHOULD NOT BE ABLE TO GET PRIV KEY OF MINER)
     public PrivateKey getPrivateKey(){ return privateKey; }
 
+    public int getMiningThreads() {
+        return miningThreads;
+    }
+
+    /**
+     * @return number of hashes per second computed (by all workers) in the last Proof-Of-Work
+     */
+    public double getLastHashRate() {
+        return lastHashRate;
+    }
+
     /* Auxiliar methods */
 
     /**
@@ -78,11 +119,24 @@ public class Miner implements Serializable {
      * @return The newly mined and signed {@code Block}, or {@code null} if mining was interrupted.
      */
     public Block mineBlock(ArrayList<Transaction> tranctions, String previousBlockHash) {
+        return mineBlock(tranctions, previousBlockHash, Constants.INITIAL_DIFFICULTY_BITS);
+    }
+
+    /**
+     * Mines a new block (see {@link #mineBlock(ArrayList, String)}) with a given dificulty, which
+     * should be the one the chain requires after the previous block (see {@link Blockchain#getNextDifficultyBits()})
+     *
+     * @param tranctions        List of transactions to include in the block.
+     * @param previousBlockHash Hash of the most recent block in the blockchain.
+     * @param difficultyBits    Number of leading zero bits the hash of the block must have
+     * @return The newly mined and signed {@code Block}, or {@code null} if mining was interrupted.
+     */
+    public Block mineBlock(ArrayList<Transaction> tranctions, String previousBlockHash, int difficultyBits) {
         // Sort transactions by timestamp in ascending order
         tranctions.sort(Comparator.comparingLong(Transaction::getTimestamp));
-        this.minedBlock = new Block(tranctions,previousBlockHash);
+        this.minedBlock = new Block(tranctions,previousBlockHash,difficultyBits);
         System.out.println("Before Mining " + stopMining);
-        minedBlock = proofOfWork(minedBlock,Constants.DIFFICULTY);
+        minedBlock = proofOfWork(minedBlock);
         if (stopMining) { // Check if miner 'received' stop signal (if so return null)
             stopMining = false; // reset
             return null;
@@ -95,40 +149,182 @@ public class Miner implements Serializable {
     }
 
     /**
-     * Sign's the  minedBlock header
+     * Replaces the transactions of the block that is being mined, without stopping the Proof-Of-Work.
+     * <p>
+     * The new template keeps the fields of the header that don't depend on the transactions (previous
+     * block, timestamp and dificulty), so only the Merkle root and the header prefix are computed again.
+     * The workers switch to the new template the next time they check it (every few thousand nonces),
+     * and keep searching their own nonces on it.
+     * </p>
+     * @param transactions transactions of the new template
+     * @return {@code true} if the template was replaced, {@code false} if no block is being mined
+     */
+    public synchronized boolean updateTemplate(ArrayList<Transaction> transactions){
+        Block current = template;
+        if (current == null || stopMining)
+            return false;
+        transactions.sort(Comparator.comparingLong(Transaction::getTimestamp));
+        Block refreshed = new Block(transactions, current.getPreviousBlockHash(), current.getDifficultyBits());
+        refreshed.setTimestamp(current.getTimestamp());
+        refreshed.calculateBlockHash();
+        template = refreshed;
+        return true;
+    }
+
+    /**
+     * Sign's the  minedBlock header (its canonical encoding, see {@link Block#getHeaderBytes()})
      */
     public void signBlockHeader(){
-        String blockHeader =
-                minedBlock.getBlockHash() + minedBlock.getPreviousBlockHash() + minedBlock.getNonce()
-                + minedBlock.getTimestamp() + minedBlock.getTransactions();
-        byte[] signature =  CryptoUtils.sign(privateKey,blockHeader.getBytes());
+        byte[] signature =  CryptoUtils.sign(privateKey,minedBlock.getHeaderBytes());
         minedBlock.setMinerSignature(signature);
     }
 
     /**
-     * Mines a block with a given dificulty (POW) and return's
-     * @param b
-     * @param dificulty
-     * @return
+     * Mines a block with a given dificulty (POW) and return's it.
+     * <p>
+     * The nonce space is split across {@code miningThreads} workers: worker {@code i}
+     * only tries the nonces {@code i, i + miningThreads, i + 2*miningThreads, ...}, on its
+     * own copy of the block header. The first worker that finds a valid nonce sets the
+     * {@code finished} flag of this call, which makes all the other workers stop right away, and its
+     * nonce/timestamp are copied to {@code b}. The flag is only used by this call, so a
+     * {@link #stopMining()} from outside is never lost (the next block isn't mined).
+     * </p>
+     * <p>
+     * The dificulty is the one in the block header ({@link Block#getDifficultyBits()}), and is
+     * checked on the leading zero bits of the raw digest.
+     * </p>
+     * <p>
+     * While the block is mined its transactions may be replaced (see {@link #updateTemplate(ArrayList)}),
+     * in which case the returned block has the transactions of the template that was solved.
+     * </p>
+     * @param b         block we are going to mine
+     * @return the mined block (if mining was stopped by someone else the block is returned unmined)
      */
-    public Block proofOfWork(Block b, int dificulty){
-        String prefixString = new String(new char[dificulty]).replace('\0','0');
-        String hash = b.getBlockHash();
-        while (!hash.substring(0,dificulty).equals(prefixString) && !stopMining){
-            b.incrementNonce();
-            b.calculateBlockHash();
-            hash = b.getBlockHash();
-            //System.out.println(hash.substring(0,dificulty));
+    public Block proofOfWork(Block b){
+        int dificultyBits = b.getDifficultyBits();
+        AtomicReference<Block> solution = new AtomicReference<>();
+        AtomicBoolean finished = new AtomicBoolean(); // Stops the workers of this call
+        LongAdder hashes = new LongAdder();
+        long start = System.nanoTime();
+
+        if (Utils.countLeadingZeroBits(CryptoUtils.hexStringToByteArray(b.getBlockHash())) < dificultyBits) {
+            template = b;
+            List<Future<?>> workers = new ArrayList<>(miningThreads);
+            for (int i = 0; i < miningThreads; i++) {
+                int firstNonce = i;
+                workers.add(getMiningPool().submit(() ->
+                        searchNonces(b, firstNonce, miningThreads, dificultyBits, solution, finished, hashes)));
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    finished.set(true);
+                } catch (ExecutionException e) {
+                    finished.set(true);
+                    template = null;
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            template = null;
+        } else {
+            solution.set(b);
         }
+        long elapsedNanos = Math.max(1, System.nanoTime() - start);
+        lastHashRate = hashes.sum() * 1e9 / elapsedNanos;
 
-        if(!stopMining) {
+        Block winner = solution.get();
+        Block mined = b;
+        if (winner != null) {
+            if (winner.getTransactions() != b.getTransactions())
+                mined = new Block(winner); // The template was replaced while mining
+            mined.setTimestamp(winner.getTimestamp());
+            mined.setNonce(winner.getNonce());
+            mined.calculateBlockHash();
             System.out.println("Mined Block !! ");
-            System.out.println("Block hash: " + b.getBlockHash());
-            System.out.println("Nonce: " + b.getNonce());
+            System.out.println("Block hash: " + mined.getBlockHash());
+            System.out.println("Nonce: " + mined.getNonce());
+            System.out.printf("Hash rate: %.0f H/s (%d hashes)%n", lastHashRate, hashes.sum());
         }else {
             System.out.println("Mining was STOPPED !!");
         }
-        return b;
+        return mined;
+    }
+
+    /**
+     * Work done by a single mining worker: tries nonces {@code firstNonce, firstNonce + step, ...}
+     * until a valid hash is found, another worker finds one (or the call is finished), or mining is stopped.
+     * <p>
+     * The header prefix (everything but the nonce) is hashed only once, and each attempt
+     * continues from a copy of that digest state with the 4 nonce bytes, so no String,
+     * formatter or hex conversion is done per nonce.
+     * </p>
+     * <p>
+     * When the worker runs out of 32-bit nonces it rolls the timestamp of its header
+     * and starts over, so the search never runs out of candidates. Workers stay disjoint
+     * because each one only uses the nonces of its own residue class (modulo {@code step}).
+     * </p>
+     * <p>
+     * Every {@link #TEMPLATE_CHECK_INTERVAL} attempts the worker checks if the template was replaced
+     * (see {@link #updateTemplate(ArrayList)}) and, if so, continues on a copy of the new one.
+     * </p>
+     */
+    private void searchNonces(Block solving, int firstNonce, int step, int dificultyBits,
+                              AtomicReference<Block> solution, AtomicBoolean finished, LongAdder hashes){
+        long noncesPerTimestamp = 1L << 32;
+        ByteBuffer nonceBytes = ByteBuffer.allocate(Integer.BYTES);
+        byte[] hash = new byte[32];
+        long attempts = 0;
+        Block candidate = new Block(solving);
+        try {
+            while (!stopMining && !finished.get()) {
+                MessageDigest prefixDigest = CryptoUtils.getSha256Digest();
+                prefixDigest.update(candidate.getHeaderPrefix());
+
+                boolean exhausted = true;
+                for (long n = firstNonce; n < noncesPerTimestamp && !stopMining && !finished.get(); n += step) {
+                    if (attempts % TEMPLATE_CHECK_INTERVAL == 0 && template != solving && template != null) {
+                        solving = template;
+                        candidate = new Block(solving);
+                        exhausted = false; // Start over with the nonces of the new template
+                        break;
+                    }
+                    MessageDigest digest = (MessageDigest) prefixDigest.clone();
+                    digest.update(nonceBytes.putInt(0, (int) n).array());
+                    digest.digest(hash, 0, hash.length);
+                    attempts++;
+                    if (Utils.countLeadingZeroBits(hash) >= dificultyBits) {
+                        candidate.setNonce((int) n);
+                        if (solution.compareAndSet(null, candidate))
+                            finished.set(true);
+                        return;
+                    }
+                }
+                // Nonce space exhausted for this timestamp (roll it)
+                if (exhausted)
+                    candidate.setTimestamp(Math.max(candidate.getTimestamp() + 1, new Date().getTime()));
+            }
+        } catch (CloneNotSupportedException | DigestException e) {
+            throw new RuntimeException(e);
+        } finally {
+            hashes.add(attempts);
+        }
+    }
+
+    /**
+     * @return the pool of mining workers (created on first use, with daemon threads
+     * so that an idle miner doesn't keep the peer alive)
+     */
+    private synchronized ExecutorService getMiningPool(){
+        if (miningPool == null) {
+            miningPool = Executors.newFixedThreadPool(miningThreads, runnable -> {
+                Thread t = new Thread(runnable, "miner-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return miningPool;
     }
 
     public void stopMining(){
@@ -0,0 +1,91 @@
+package BlockChain;
+
+import Cryptography.CryptoUtils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the miner signatures that were already verified.
+ * <p>
+ * The same block is validated many times (when it is added, in every audit of the chain, and every time
+ * it is received again from a peer), and verifying its RSA signature is by far the most expensive check.
+ * Each valid signature is remembered by a digest of (header, miner public key, signature), so checking
+ * it again is only a hash and a lookup. Since the header is part of the entry, a block whose header was
+ * changed never matches an entry of the original block. Only valid signatures are cached, and the least
+ * recently used entries are discarded when the cache is full.
+ * </p>
+ */
+public class SignatureCache {
+    private final Map<ByteBuffer, Boolean> verified;
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Constructor for a SignatureCache
+     * @param capacity maximum number of verified signatures that are remembered
+     */
+    public SignatureCache(int capacity) {
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Checks if {@code signature} is a valid signature of {@code header}, only verifying it
+     * (with {@link CryptoUtils#verifySignature}) if it wasn't verified before
+     * @param publicKey public key of the miner that supposedly signed the header
+     * @param header    encoded block header
+     * @param signature signature of the header
+     * @return {@code true} if the signature is valid, {@code false} otherwise
+     */
+    public boolean verify(PublicKey publicKey, byte[] header, byte[] signature) {
+        ByteBuffer entry = entry(publicKey, header, signature);
+        synchronized (verified) {
+            if (verified.get(entry) != null) {
+                hits.increment();
+                return true;
+            }
+        }
+        boolean valid = CryptoUtils.verifySignature(publicKey, header, signature);
+        if (valid) {
+            synchronized (verified) {
+                verified.put(entry, Boolean.TRUE);
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * @return number of signatures in the cache
+     */
+    public int size() {
+        synchronized (verified) {
+            return verified.size();
+        }
+    }
+
+    /**
+     * @return number of verifications that were answered by the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return SHA-256( header | public key | signature ), that identifies a verified signature
+     */
+    private static ByteBuffer entry(PublicKey publicKey, byte[] header, byte[] signature) {
+        MessageDigest digest = CryptoUtils.getSha256Digest();
+        digest.update(header);
+        digest.update(publicKey.getEncoded());
+        digest.update(signature);
+        return ByteBuffer.wrap(digest.digest());
+    }
+}
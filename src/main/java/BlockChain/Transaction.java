@@ -2,6 +2,8 @@ package BlockChain;
 import Cryptography.CryptoUtils;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.util.Arrays;
 import java.util.Base64;
@@ -11,6 +13,7 @@ import java.util.Base64;
  * aplication.
  */
 public class Transaction implements Serializable {
+    private static final long serialVersionUID = 1L; // Transactions are kept in the block store, see BlockStore
     public enum TransactionType {
          START_AUCTION, CLOSE_AUCTION, PLACE_BID
     }
@@ -21,6 +24,7 @@ public class Transaction implements Serializable {
     private final String auctionId; // Uniquely identifies an auction owner:auctionName
     private final long timestamp;
     private final double bidAmount; // Only used in "PLACE_BID"
+    private transient byte[] encoded; // Cache of the canonical encoding (transaction is immutable)
 
     /**
      * Creates a Transaction in our auction aplication
@@ -63,12 +67,60 @@ public class Transaction implements Serializable {
 
     /* Auxiliar methods  */
 
+    /**
+     * Returns the canonical binary encoding of this transaction, whose hash is the
+     * transaction id (and the leaf of the transaction in the block's Merkle tree):
+     * <pre>
+     *  version (4) | type (1) | owner | username | auctionId | bidAmount (8) | timestamp (8)
+     * </pre>
+     * where each String is encoded as its UTF-8 length (4 bytes) followed by the UTF-8 bytes.
+     * The encoding is computed once and cached.
+     *
+     * @return canonical encoding of this transaction
+     */
+    public final byte[] getEncoded() {
+        if (encoded == null) {
+            byte[] ownerBytes = owner.getBytes(StandardCharsets.UTF_8);
+            byte[] usernameBytes = username.getBytes(StandardCharsets.UTF_8);
+            byte[] auctionIdBytes = auctionId.getBytes(StandardCharsets.UTF_8);
+            encoded = ByteBuffer.allocate(Integer.BYTES + 1
+                            + 3 * Integer.BYTES + ownerBytes.length + usernameBytes.length + auctionIdBytes.length
+                            + Double.BYTES + Long.BYTES)
+                    .putInt(Constants.ENCODING_VERSION)
+                    .put((byte) type.ordinal())
+                    .putInt(ownerBytes.length).put(ownerBytes)
+                    .putInt(usernameBytes.length).put(usernameBytes)
+                    .putInt(auctionIdBytes.length).put(auctionIdBytes)
+                    .putDouble(bidAmount)
+                    .putLong(timestamp)
+                    .array();
+        }
+        return encoded;
+    }
+
     /**
      * generates a transaction Id based on Transaction data
+     * (SHA-256 of the canonical encoding, so it commits to every field)
      * @return genarated Transaction Id
      */
     private String generateTransactionId() {
-        return CryptoUtils.getHash256((owner + type + auctionId + bidAmount + timestamp));
+        return Utils.getHexString(CryptoUtils.getSha256Digest().digest(getEncoded()));
+    }
+
+    /**
+     * Two transactions are equal if they have the same transaction Id
+     * (which is the hash of all the fields of the transaction)
+     */
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) return true;
+        if (!(object instanceof Transaction other)) return false;
+        return transactionId.equals(other.transactionId);
+    }
+
+    @Override
+    public int hashCode() {
+        return transactionId.hashCode();
     }
 
     @Override
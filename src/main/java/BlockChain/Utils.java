@@ -1,13 +1,24 @@
 package BlockChain;
 
-import java.text.Format;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import Cryptography.CryptoUtils;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 /**
  *  Class that contains utilitaries needed for the Blockchain
  */
 public class Utils {
+    // Immutable (and thread safe), so it can be shared instead of creating a formatter per call
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    /**
+     * Length (in bytes) of a SHA-256 hash
+     */
+    public static final int HASH_LENGTH = 32;
+
     /**
      * Convert's a byte array into a hexadecimal string
      * @param  hash
@@ -25,14 +36,42 @@ public class Utils {
         return hexString.toString();
     }
 
+    /**
+     * Converts a hexadecimal block hash into its raw bytes. The empty hash
+     * (used as the previous hash of the first block) corresponds to all zeros.
+     * @param  hash hexadecimal hash (or the empty String)
+     * @return the {@link #HASH_LENGTH} bytes of the hash
+     * @throws IllegalArgumentException if the String isn't a hexadecimal SHA-256 hash
+     */
+    public static byte[] hashToBytes(String hash){
+        if (hash == null || hash.isEmpty())
+            return new byte[HASH_LENGTH];
+        if (hash.length() != 2 * HASH_LENGTH || !hash.chars().allMatch(c -> Character.digit(c, 16) >= 0))
+            throw new IllegalArgumentException("Invalid block hash: " + hash);
+        return CryptoUtils.hexStringToByteArray(hash);
+    }
+
+    /**
+     * Counts the number of leading zero bits of a hash (e.g. a raw SHA-256 digest)
+     * @param  hash byte array we are going to check
+     * @return The number of consecutive zero bits at the start of the hash
+     */
+    public static int countLeadingZeroBits(byte[] hash){
+        int bits = 0;
+        for (byte b : hash){
+            if (b != 0)
+                return bits + Integer.numberOfLeadingZeros(b & 0xff) - 24;
+            bits += 8;
+        }
+        return bits;
+    }
+
     /**
      * Converts a Unix time to a formatted date and time string.
      * @param  time Unix time (in milliseconds)
      * @return The corresponding formated date and time String (yyyy/MM/dd HH:mm:ss)
      */
     public static  String convertTime(long time){
-        Date date = new Date(time);
-        Format format = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-        return format.format(date);
+        return TIME_FORMAT.format(Instant.ofEpochMilli(time));
     }
 }
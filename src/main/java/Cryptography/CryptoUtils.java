@@ -2,6 +2,7 @@ package Cryptography;
 
 import BlockChain.Utils;
 import Kademlia.Constants;
+import Kademlia.KademliaId;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -72,6 +73,19 @@ public class CryptoUtils {
         }
     }
 
+    /**
+     * Creates a new SHA-256 {@link MessageDigest}
+     *
+     * @return a fresh SHA-256 digest
+     */
+    public static MessageDigest getSha256Digest(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Generates the SHA-1 hash of a given input string.
      *
@@ -122,51 +136,37 @@ public class CryptoUtils {
 
     /**
      * Generates a secure node ID based on the SHA-256 hash of the provided public key.
-     * The resulting ID is a binary string with a length defined by {@link Kademlia.Constants#NUMBER_OF_BITS_NODE_ID}.
+     * The resulting ID has the number of bits defined by {@link Kademlia.Constants#NUMBER_OF_BITS_NODE_ID}
+     * (packed, see {@link KademliaId}).
      *
      * @param  publicKey the public key to generate the node ID from
-     * @return a binary string representing the secure node ID
+     * @return the secure node ID
      */
-    public static String generateSecureNodeId(PublicKey publicKey){
-        String hashHex = CryptoUtils.getHash256(String.valueOf(publicKey)); // SHA-256 hash in hex
-        return generateBinaryId(hashHex);
+    public static KademliaId generateSecureNodeId(PublicKey publicKey){
+        return generateId(String.valueOf(publicKey));
     }
 
     /**
      * Generates a key ID based on the SHA-256 hash of the provided key string.
-     * The resulting ID is a binary string with a length defined by {@link Kademlia.Constants#NUMBER_OF_BITS_NODE_ID}.
+     * The resulting ID has the number of bits defined by {@link Kademlia.Constants#NUMBER_OF_BITS_NODE_ID}
+     * (packed, see {@link KademliaId}).
      *
      * @param  key the key string to generate the key ID from
-     * @return a binary string representing the key ID
+     * @return the key ID
      */
-    public static String generateKeyId(String key){
-        String hashHex = CryptoUtils.getHash256(key);
-        return generateBinaryId(hashHex);
+    public static KademliaId generateKeyId(String key){
+        return generateId(key);
     }
 
     /**
-     * Converts a hexadecimal hash string into a binary string of a predefined length.
-     * The length of the binary string is determined by {@link Kademlia.Constants#NUMBER_OF_BITS_NODE_ID}.
+     * Takes the first {@link Kademlia.Constants#NUMBER_OF_BITS_NODE_ID} bits of the SHA-256 hash of a String
      *
-     * @param  hashHex the hexadecimal hash string to convert
-     * @return a binary string representation of the hash, truncated to the required number of bits
+     * @param  value the String we are hashing
+     * @return the packed id
      * @throws IllegalArgumentException if the hash output is too short for the required number of bits
      */
-    private static String generateBinaryId(String hashHex) {
-        byte[] hashBytes = CryptoUtils.hexStringToByteArray(hashHex); // Convert hex string to bytes
-        int numberOfBits = Constants.NUMBER_OF_BITS_NODE_ID;
-        int numberOfBytesNeeded = (int) Math.ceil(numberOfBits / 8.0);
-
-        if (hashBytes.length < numberOfBytesNeeded) {
-            throw new IllegalArgumentException("Hash output is too short for the required number of bits");
-        }
-
-        StringBuilder binaryBuilder = new StringBuilder();
-        for (int i = 0; i < numberOfBytesNeeded; i++) {
-            binaryBuilder.append(String.format("%8s", Integer.toBinaryString(hashBytes[i] & 0xFF)).replace(' ', '0'));
-        }
-
-        // Truncate to the exact number of bits required
-        return binaryBuilder.substring(0, numberOfBits);
+    private static KademliaId generateId(String value) {
+        byte[] hashBytes = getSha256Digest().digest(value.getBytes(StandardCharsets.UTF_8));
+        return KademliaId.fromHash(hashBytes, Constants.NUMBER_OF_BITS_NODE_ID);
     }
 }
@@ -0,0 +1,242 @@
+package Kademlia;
+
+import BlockChain.Block;
+import BlockChain.BlockHeader;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Downloads the blocks of a header chain (see {@link BlockHeader}) from several peers in parallel.
+ * <p>
+ * The chain is split in ranges of {@link BlockChain.Constants#MAX_BLOCKS_PER_MESSAGE} blocks, and each range
+ * is requested with {@code GET_BLOCKS_SINCE} (the hash of the block before the range is known from the
+ * headers). Each range goes to the peer with the best measured throughput that isn't already downloading
+ * {@link Constants#MAX_DOWNLOADS_PER_PEER} ranges, so faster peers end up serving more of the chain.
+ * A range that fails (the peer doesn't answer, or sends blocks that don't match their headers) is retried
+ * on another peer, and a peer that fails {@link Constants#MAX_PEER_FAILURES} times is no longer used.
+ * </p>
+ * <p>
+ * Ranges may arrive in any order, but they are handed to the consumer in chain order (so that the
+ * blocks can be validated and added to the chain while the next ranges are downloaded).
+ * </p>
+ */
+public class BlockDownloader {
+
+    /**
+     * Requests the blocks after a given block to a peer
+     */
+    public interface BlockFetcher {
+        /**
+         * @return the blocks the peer sent, or {@code null} if the request failed
+         */
+        List<?> fetch(Node peer, String previousBlockHash);
+    }
+
+    /**
+     * Receives the downloaded blocks, in chain order
+     */
+    public interface BatchConsumer {
+        /**
+         * @return {@code true} if the blocks were accepted, {@code false} to stop the download
+         */
+        boolean accept(List<Block> blocks);
+    }
+
+    private final List<PeerStats> peers = new ArrayList<>();
+    private final String previousBlockHash;
+    private final List<BlockHeader> headers;
+    private final BlockFetcher fetcher;
+    private final int rangeSize = BlockChain.Constants.MAX_BLOCKS_PER_MESSAGE;
+
+    /**
+     * Constructor for a BlockDownloader that requests the blocks with {@code GET_BLOCKS_SINCE}
+     * @param peers             peers the blocks are downloaded from
+     * @param previousBlockHash hash of the block before the first header ("" if it is the first block)
+     * @param headers           (valid) headers of the blocks to download, in chain order
+     */
+    public BlockDownloader(Collection<Node> peers, String previousBlockHash, List<BlockHeader> headers) {
+        this(peers, previousBlockHash, headers, Operations::fetchBlocksSince);
+    }
+
+    /**
+     * Constructor for a BlockDownloader
+     * @param peers             peers the blocks are downloaded from
+     * @param previousBlockHash hash of the block before the first header ("" if it is the first block)
+     * @param headers           (valid) headers of the blocks to download, in chain order
+     * @param fetcher           how the blocks are requested to a peer
+     */
+    public BlockDownloader(Collection<Node> peers, String previousBlockHash, List<BlockHeader> headers,
+                           BlockFetcher fetcher) {
+        for (Node n : new LinkedHashSet<>(peers))
+            this.peers.add(new PeerStats(n));
+        this.previousBlockHash = previousBlockHash;
+        this.headers = headers;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Downloads all the blocks and hands them to the consumer, in chain order
+     * @param consumer receives the blocks of each range (in order)
+     * @return the number of blocks handed to the consumer, or -1 if the download failed
+     *         (a range couldn't be downloaded from any peer, or the consumer stopped it)
+     */
+    public int download(BatchConsumer consumer) {
+        int ranges = (headers.size() + rangeSize - 1) / rangeSize;
+        if (ranges == 0) return 0;
+        if (peers.isEmpty()) return -1;
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(ranges, peers.size() * Constants.MAX_DOWNLOADS_PER_PEER), runnable -> {
+                    Thread t = new Thread(runnable, "block-download");
+                    t.setDaemon(true);
+                    return t;
+                });
+        CompletionService<RangeResult> completion = new ExecutorCompletionService<>(pool);
+        Deque<Integer> pending = new ArrayDeque<>();
+        for (int range = 0; range < ranges; range++)
+            pending.add(range);
+        Map<Integer, Set<PeerStats>> failedPeers = new HashMap<>(); // range -> peers it failed on
+        Map<Integer, List<Block>> downloaded = new HashMap<>();     // ranges waiting for the ones before them
+        int nextRange = 0;
+        int inFlight = 0;
+        int synced = 0;
+
+        try {
+            while (nextRange < ranges) {
+                // Assign the pending ranges (retried ranges first) to the peers that have room for them
+                while (!pending.isEmpty()) {
+                    int range = pending.peekFirst();
+                    Set<PeerStats> excluded = failedPeers.getOrDefault(range, Set.of());
+                    if (peers.stream().noneMatch(p -> p.isUsable() && !excluded.contains(p))) {
+                        System.out.println("[GET_BLOCKS_SINCE] Could not download blocks " + range * rangeSize
+                                + " to " + (rangeEnd(range) - 1) + " from any peer");
+                        return -1;
+                    }
+                    PeerStats peer = choosePeer(excluded);
+                    if (peer == null) break; // Every peer is busy
+                    pending.pollFirst();
+                    peer.inFlight++;
+                    inFlight++;
+                    completion.submit(() -> fetchRange(peer, range));
+                }
+
+                RangeResult result = completion.take().get();
+                inFlight--;
+                result.peer.inFlight--;
+                if (result.blocks == null) {
+                    result.peer.failures++;
+                    failedPeers.computeIfAbsent(result.range, r -> new HashSet<>()).add(result.peer);
+                    pending.addFirst(result.range);
+                    continue;
+                }
+                result.peer.record(result.blocks.size(), result.elapsedNanos);
+                downloaded.put(result.range, result.blocks);
+
+                // Hand the ranges that are complete (in chain order) to the consumer
+                while (downloaded.containsKey(nextRange)) {
+                    List<Block> blocks = downloaded.remove(nextRange);
+                    if (!consumer.accept(blocks))
+                        return -1;
+                    synced += blocks.size();
+                    nextRange++;
+                }
+            }
+            return synced;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            System.out.println("Block download: " + peers);
+        }
+    }
+
+    /* Auxiliar methods */
+
+    /**
+     * @return the usable peer with the most expected throughput per range it is downloading
+     *         (peers that were not measured yet are tried first), or {@code null} if all are busy
+     */
+    private PeerStats choosePeer(Set<PeerStats> excluded) {
+        PeerStats best = null;
+        for (PeerStats p : peers) {
+            if (!p.isUsable() || excluded.contains(p) || p.inFlight >= Constants.MAX_DOWNLOADS_PER_PEER)
+                continue;
+            if (best == null || p.score() > best.score())
+                best = p;
+        }
+        return best;
+    }
+
+    /**
+     * Downloads a range of blocks from a peer, checking that each block matches its header
+     */
+    private RangeResult fetchRange(PeerStats peer, int range) {
+        long start = System.nanoTime();
+        int from = range * rangeSize;
+        int to = rangeEnd(range);
+        String previous = from == 0 ? previousBlockHash : headers.get(from - 1).getBlockHash();
+
+        List<?> received = fetcher.fetch(peer.node, previous);
+        List<Block> blocks = null;
+        if (received != null && received.size() >= to - from) {
+            blocks = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                if (!(received.get(i - from) instanceof Block b) || !headers.get(i).matches(b)) {
+                    System.out.println("[GET_BLOCKS_SINCE] " + peer.node.getIpAddr() + ":" + peer.node.getPort()
+                            + " sent a block that doesn't match its header");
+                    blocks = null;
+                    break;
+                }
+                blocks.add(b);
+            }
+        }
+        return new RangeResult(peer, range, blocks, System.nanoTime() - start);
+    }
+
+    private int rangeEnd(int range) {
+        return Math.min(headers.size(), (range + 1) * rangeSize);
+    }
+
+    /**
+     * Result of the download of a range ({@code blocks} is {@code null} if it failed)
+     */
+    private record RangeResult(PeerStats peer, int range, List<Block> blocks, long elapsedNanos) {}
+
+    /**
+     * What the downloader knows about a peer (only used by the thread that runs {@link #download})
+     */
+    private static class PeerStats {
+        private final Node node;
+        private double blocksPerSecond; // Moving average of the throughput (0 until measured)
+        private int inFlight;           // Ranges being downloaded from the peer
+        private int failures;
+
+        PeerStats(Node node) {
+            this.node = node;
+        }
+
+        boolean isUsable() {
+            return failures < Constants.MAX_PEER_FAILURES;
+        }
+
+        double score() {
+            double expected = blocksPerSecond > 0 ? blocksPerSecond : Double.MAX_VALUE;
+            return expected / (inFlight + 1);
+        }
+
+        void record(int blocks, long elapsedNanos) {
+            double measured = blocks * 1e9 / Math.max(1, elapsedNanos);
+            blocksPerSecond = blocksPerSecond > 0 ? (blocksPerSecond + measured) / 2 : measured;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{ Peer = %s:%d, Throughput = %.1f blocks/s, Failures = %d }",
+                    node.getIpAddr(), node.getPort(), blocksPerSecond, failures);
+        }
+    }
+}
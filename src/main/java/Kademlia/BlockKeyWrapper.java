@@ -14,7 +14,7 @@ public class BlockKeyWrapper implements Serializable {
     /**
      * The key identifier associated with the block, typically used as the lookup or storage key.
      */
-    private String keyId;
+    private KademliaId keyId;
 
     /**
      * The blockchain block to be transmitted or stored.
@@ -27,7 +27,7 @@ public class BlockKeyWrapper implements Serializable {
      * @param block the block to include in the wrapper
      * @param keyId the key identifier associated with the block
      */
-    public BlockKeyWrapper(String keyId,Block block) {
+    public BlockKeyWrapper(KademliaId keyId,Block block) {
         this.block = block;
         this.keyId = keyId;
     }
@@ -44,9 +44,9 @@ public class BlockKeyWrapper implements Serializable {
     /**
      * Returns the key ID associated with the block.
      *
-     * @return the key identifier string
+     * @return the key identifier
      */
-    public String getKeyId() {
+    public KademliaId getKeyId() {
         return keyId;
     }
 }
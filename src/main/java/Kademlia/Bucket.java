@@ -2,90 +2,177 @@ package Kademlia;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 /**
  * Class that represents a bucket in a routing table of a Kademlia node
+ * <p>
+ * The nodes are kept from the least-recently seen to the most-recently seen (a node that is seen
+ * again moves to the tail). When the bucket is full, new nodes go to a replacement cache (of at most
+ * k nodes), and the routing table pings the least-recently seen node (see {@link RoutingTable}):
+ * if it answers it moves to the tail, otherwise it is evicted and the most recently seen
+ * replacement takes its place. This way old nodes, that are the most likely to stay online,
+ * are never dropped for new ones, and dead nodes don't stay in the bucket.
+ * </p>
  */
 public class Bucket implements Serializable {
-    private String ownerNodeId;         // Node Id of the owner of this bucket
-    private String prefix;              // Prefix of 0's of the bucket (represents the corresponding tree prefix of this bucket, see image on notes to understand)
+    private KademliaId ownerNodeId;     // Node Id of the owner of this bucket
+    private int prefixLength;           // Length of the common prefix of the nodes of the bucket with the owner (represents the corresponding tree prefix of this bucket, see image on notes to understand)
     private int k;                      // Max number of nodes per bucket
-    private LinkedList<Node> nodeList;  // List of Nodes in current bucket
+    private LinkedHashMap<KademliaId, Node> nodes;          // Nodes in current bucket (least-recently seen first)
+    private LinkedHashMap<KademliaId, Node> replacements;   // Nodes that didn't fit in the bucket (most-recently seen last)
+    private transient boolean pinging;  // If the least-recently seen node is being pinged
 
     /**
      * Constructor for a Bucket
      *
      * @param ownerNodeId Node If of owner of this bucket
-     * @param prefix      Prefix of 0's of the bucket
+     * @param prefixLength Length of the common prefix of the nodes of the bucket with the owner
      * @param k           Max number of nodes per bucket
      */
-    public Bucket(String ownerNodeId, String prefix, int k) {
+    public Bucket(KademliaId ownerNodeId, int prefixLength, int k) {
         this.ownerNodeId = ownerNodeId;
-        this.prefix = prefix;
+        this.prefixLength = prefixLength;
         this.k = k;
-        nodeList = new LinkedList<>();
+        nodes = new LinkedHashMap<>();
+        replacements = new LinkedHashMap<>();
     }
 
     /* Getters */
-    public String getOwnerNodeId(){return ownerNodeId; }
-    public String getPrefix() {
-        return prefix;
+    public KademliaId getOwnerNodeId(){return ownerNodeId; }
+    public int getPrefixLength() {
+        return prefixLength;
     }
     public int getK() {
         return k;
     }
-    public LinkedList<Node> getNodeList() {
-        return nodeList;
+
+    /**
+     * @return the nodes in the bucket, from the least-recently seen to the most-recently seen
+     */
+    public synchronized List<Node> getNodeList() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    /**
+     * @return the nodes waiting for a place in the bucket, from the least-recently seen to the most-recently seen
+     */
+    public synchronized List<Node> getReplacements() {
+        return new ArrayList<>(replacements.values());
     }
 
     /* Auxiliar methods */
 
     /**
-     * Add's a node to the bucket list
+     * Add's a node to the bucket list, or moves it to the tail if it is already there (it was seen again).
+     * If the bucket is full the node goes to the replacement cache.
      *
      * @param n node that we are trying to add
-     * @return True if node was added and False otherwise
+     * @return True if node was added and False otherwise (already in the bucket or bucket full)
      */
-    public boolean addNode(Node n){
-        if (nodeList.size() > k) {
-            System.out.println("Bucket '" + prefix + "' está cheio!!");
+    public synchronized boolean addNode(Node n){
+        KademliaId id = n.getNodeId();
+        if (nodes.containsKey(id)) {
+            nodes.remove(id);
+            nodes.put(id, n);
             return false;
         }
-        else {
-            nodeList.addLast(n);
-            return true;
+        if (isFull()) {
+            replacements.remove(id);
+            replacements.put(id, n);
+            if (replacements.size() > k)
+                replacements.pollFirstEntry();
+            return false;
         }
+        replacements.remove(id);
+        nodes.put(id, n);
+        return true;
     }
 
     /**
-     * Removes a node from the bucket list
+     * Moves a node of the bucket to the tail (it was seen)
+     *
+     * @param n node that was seen
+     * @return True if the node is in the bucket and False otherwise
+     */
+    public synchronized boolean touch(Node n){
+        Node node = nodes.remove(n.getNodeId());
+        if (node == null)
+            return false;
+        nodes.put(n.getNodeId(), node);
+        return true;
+    }
+
+    /**
+     * Removes a node from the bucket list (its place is taken by the most recently seen replacement)
      *
      * @param n node that we are trying to remove
      * @return True if node was removed and False otherwise
      */
-    public boolean removeNode(Node n){
-        for (Node node : nodeList){
-            if(node.equals(n)) {
-                nodeList.remove(node);
-                return true;
-            }
+    public synchronized boolean removeNode(Node n){
+        replacements.remove(n.getNodeId(), n);
+        if (!nodes.remove(n.getNodeId(), n))
+            return false;
+        if (!replacements.isEmpty()) {
+            Node replacement = replacements.pollLastEntry().getValue();
+            nodes.put(replacement.getNodeId(), replacement);
         }
-        return false;
+        return true;
+    }
+
+    /**
+     * @param n node we are looking for
+     * @return True if the node is in the bucket (not in the replacement cache) and False otherwise
+     */
+    public synchronized boolean contains(Node n){
+        Node node = nodes.get(n.getNodeId());
+        return node != null && node.equals(n);
+    }
+
+    /**
+     * @return True if the bucket has k nodes
+     */
+    public synchronized boolean isFull(){
+        return nodes.size() >= k;
+    }
+
+    /**
+     * Starts a ping to the least-recently seen node (only one ping per bucket at a time)
+     *
+     * @return the node that must be pinged, or null if the bucket is not full or it is already being pinged
+     */
+    synchronized Node startPing(){
+        if (pinging || !isFull())
+            return null;
+        pinging = true;
+        return nodes.firstEntry().getValue();
+    }
+
+    /**
+     * Ends a ping started with {@link #startPing()}
+     *
+     * @param n     node that was pinged
+     * @param alive True if the node answered (it moves to the tail), False if not (it is evicted)
+     */
+    synchronized void finishPing(Node n, boolean alive){
+        pinging = false;
+        if (alive)
+            touch(n);
+        else
+            removeNode(n);
     }
 
     /**
      * @return number of nodes that are currenltly in the bucket
      */
-    public  int size(){
-        return nodeList.size();
+    public synchronized int size(){
+        return nodes.size();
     }
 
     @Override
-    public String toString() {
-        return "[prefix = " + this.prefix + ", " +
-                "Nodes in bucket = " + nodeList + "]";
+    public synchronized String toString() {
+        return "[prefixLength = " + this.prefixLength + ", " +
+                "Nodes in bucket = " + nodes.values() + "]";
     }
 }
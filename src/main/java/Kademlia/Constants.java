@@ -38,9 +38,21 @@ public class Constants {
 
     /**
      * Defines the number of bits that are present in
-     * the Node id of a kademlia Node (here we represent
-     * the Node id inte binary format, e.g. "10100001" is
-     * an 8 bit Node ID)
+     * the Node id of a kademlia Node (and in the key ids of the values),
+     * which are the whole SHA-256 output, so that ids don't collide
+     * (and the routing table has one bucket per bit, see {@link KademliaId})
      */
-    public static final int NUMBER_OF_BITS_NODE_ID = 8;
+    public static final int NUMBER_OF_BITS_NODE_ID = 256;
+
+    /**
+     * Defines the max number of block ranges that are downloaded
+     * at the same time from a single peer (while syncing the blockchain)
+     */
+    public static final int MAX_DOWNLOADS_PER_PEER = 2;
+
+    /**
+     * Defines the number of failed downloads after which a peer
+     * is no longer used to sync the blockchain
+     */
+    public static final int MAX_PEER_FAILURES = 3;
 }
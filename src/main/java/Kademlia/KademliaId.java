@@ -0,0 +1,207 @@
+package Kademlia;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Id of a kademlia Node (or of a key stored in the network), packed in 64 bit words.
+ * <p>
+ * The bits of the id are stored from the most significant bit of the first word, so the
+ * XOR distance between two ids is computed word by word, and the length of their common
+ * prefix (that decides the bucket of a node, see {@link RoutingTable}) is found with
+ * {@link Long#numberOfLeadingZeros(long)} on the first word that differs. Comparing
+ * distances (see {@link #compareDistance(KademliaId, KademliaId)}) doesn't allocate anything.
+ * </p>
+ * <p>
+ * Ids are sent to other peers as the number of bits and the packed words (and are checked
+ * when they are received, see {@link #readObject}). Ids with a different number of bits than
+ * {@link Constants#NUMBER_OF_BITS_NODE_ID} are not part of our id space (see {@link #hasNetworkLength()}).
+ * </p>
+ */
+public final class KademliaId implements Serializable {
+    private final int numberOfBits;
+    private final long[] words;
+
+    private KademliaId(int numberOfBits, long[] words) {
+        this.numberOfBits = numberOfBits;
+        this.words = words;
+    }
+
+    /**
+     * Creates an id from the first {@code numberOfBits} bits of a hash
+     * @param hash         raw bytes of a hash (e.g. SHA-256)
+     * @param numberOfBits number of bits of the id
+     * @return the id
+     * @throws IllegalArgumentException if the hash is too short for the required number of bits
+     */
+    public static KademliaId fromHash(byte[] hash, int numberOfBits) {
+        if (numberOfBits <= 0 || hash.length * 8 < numberOfBits)
+            throw new IllegalArgumentException("Hash output is too short for the required number of bits");
+        long[] words = new long[(numberOfBits + 63) / 64];
+        int numberOfBytes = (numberOfBits + 7) / 8;
+        for (int i = 0; i < numberOfBytes; i++)
+            words[i / 8] |= (hash[i] & 0xFFL) << (56 - 8 * (i % 8));
+        return new KademliaId(numberOfBits, mask(numberOfBits, words));
+    }
+
+    /**
+     * Creates an id from its binary representation (e.g. "10100001")
+     * @param binaryString String of '0' and '1' (one per bit of the id)
+     * @return the id
+     * @throws IllegalArgumentException if the String isn't a binary String
+     */
+    public static KademliaId fromBinaryString(String binaryString) {
+        if (binaryString == null || binaryString.isEmpty())
+            throw new IllegalArgumentException("Invalid node id: " + binaryString);
+        long[] words = new long[(binaryString.length() + 63) / 64];
+        for (int i = 0; i < binaryString.length(); i++) {
+            char c = binaryString.charAt(i);
+            if (c != '0' && c != '1')
+                throw new IllegalArgumentException("Invalid node id: " + binaryString);
+            if (c == '1')
+                words[i / 64] |= 1L << (63 - i % 64);
+        }
+        return new KademliaId(binaryString.length(), words);
+    }
+
+    /**
+     * @param numberOfBits number of bits of the id
+     * @return the id with all bits set to 0
+     */
+    public static KademliaId zero(int numberOfBits) {
+        return new KademliaId(numberOfBits, new long[(numberOfBits + 63) / 64]);
+    }
+
+    /* Getter's */
+    public int getNumberOfBits() {
+        return numberOfBits;
+    }
+
+    /**
+     * @return {@code true} if the id has the number of bits of the ids of the network
+     *         ({@link Constants#NUMBER_OF_BITS_NODE_ID}), so it can be compared with them
+     */
+    public boolean hasNetworkLength() {
+        return numberOfBits == Constants.NUMBER_OF_BITS_NODE_ID;
+    }
+
+    /**
+     * @param index position of the bit (0 is the most significant bit)
+     * @return {@code true} if the bit is 1
+     */
+    public boolean testBit(int index) {
+        return (words[index / 64] & (1L << (63 - index % 64))) != 0;
+    }
+
+    /**
+     * Computes the length of the common prefix of this id and another one, i.e. the number of
+     * leading zero bits of their XOR distance
+     * @param other id with the same number of bits
+     * @return the number of leading bits both ids have in common ({@link #getNumberOfBits()} if they are equal)
+     */
+    public int commonPrefixLength(KademliaId other) {
+        checkSameLength(other);
+        for (int i = 0; i < words.length; i++) {
+            long distance = words[i] ^ other.words[i];
+            if (distance != 0)
+                return Math.min(numberOfBits, i * 64 + Long.numberOfLeadingZeros(distance));
+        }
+        return numberOfBits;
+    }
+
+    /**
+     * Compares the XOR distances of two ids to this id
+     * @param a id with the same number of bits
+     * @param b id with the same number of bits
+     * @return a negative number if {@code a} is closer to this id than {@code b}, zero if they are
+     *         at the same distance (i.e. they are equal), or a positive number if {@code b} is closer
+     */
+    public int compareDistance(KademliaId a, KademliaId b) {
+        checkSameLength(a);
+        checkSameLength(b);
+        for (int i = 0; i < words.length; i++) {
+            int cmp = Long.compareUnsigned(words[i] ^ a.words[i], words[i] ^ b.words[i]);
+            if (cmp != 0)
+                return cmp;
+        }
+        return 0;
+    }
+
+    /**
+     * @param other id with the same number of bits
+     * @return the XOR distance between this id and the other one
+     */
+    public KademliaId xor(KademliaId other) {
+        checkSameLength(other);
+        long[] distance = new long[words.length];
+        for (int i = 0; i < words.length; i++)
+            distance[i] = words[i] ^ other.words[i];
+        return new KademliaId(numberOfBits, distance);
+    }
+
+    /* Auxiliar methods */
+
+    /**
+     * Clears the bits of the last word that are after the last bit of the id
+     */
+    private static long[] mask(int numberOfBits, long[] words) {
+        int unused = words.length * 64 - numberOfBits;
+        if (unused > 0)
+            words[words.length - 1] &= -1L << unused;
+        return words;
+    }
+
+    /**
+     * Checks an id that was received from another peer (the number of words must match the
+     * number of bits, and the bits after the last one must be 0, or equal ids wouldn't be equal)
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (numberOfBits <= 0 || words == null || words.length != (numberOfBits + 63) / 64
+                || !Arrays.equals(words, mask(numberOfBits, words.clone())))
+            throw new InvalidObjectException("Invalid node id");
+    }
+
+    private void checkSameLength(KademliaId other) {
+        if (other.numberOfBits != numberOfBits)
+            throw new IllegalArgumentException("Node ids with different number of bits: "
+                    + numberOfBits + " and " + other.numberOfBits);
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return object instanceof KademliaId other
+                && numberOfBits == other.numberOfBits
+                && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+
+    /**
+     * @return the binary representation of the id (e.g. "10100001")
+     */
+    public String toBinaryString() {
+        StringBuilder binary = new StringBuilder(numberOfBits);
+        for (int i = 0; i < numberOfBits; i++)
+            binary.append(testBit(i) ? '1' : '0');
+        return binary.toString();
+    }
+
+    /**
+     * @return the hexadecimal representation of the id (one digit per 4 bits, the last
+     *         digit has the remaining bits followed by zeros)
+     */
+    @Override
+    public String toString() {
+        StringBuilder hex = new StringBuilder((numberOfBits + 3) / 4);
+        for (int i = 0; i < numberOfBits; i += 4)
+            hex.append(Character.forDigit((int) (words[i / 64] >>> (60 - i % 64)) & 0xF, 16));
+        return hex.toString();
+    }
+}
@@ -15,11 +15,11 @@ import java.util.Objects;
  * Class that represents a kademlia Node in a  p2p network
  */
 public class Node implements Serializable {
-    private String nodeId; // Unique Id
+    private KademliaId nodeId; // Unique Id
     private String ipAddr;
     private int port;
     private RoutingTable routingTable;
-    private Map<String, Block> localStorage;
+    private Map<KademliaId, Block> localStorage;
     private PublicKey publicKey;
 
     /**
@@ -59,7 +59,7 @@ public class Node implements Serializable {
     }
 
     /* Getter's & setters (the setters are only here for test purposes) */
-    public String getNodeId() {
+    public KademliaId getNodeId() {
         return nodeId;
     }
 
@@ -75,11 +75,11 @@ public class Node implements Serializable {
         return routingTable;
     }
 
-    public Map<String, Block> getLocalStorage() {
+    public Map<KademliaId, Block> getLocalStorage() {
         return localStorage;
     }
 
-    public void setNodeId(String nodeId) {
+    public void setNodeId(KademliaId nodeId) {
         this.nodeId = nodeId;
     }
 
@@ -108,7 +108,7 @@ public class Node implements Serializable {
      * @param key key part
      * @param b   block part
      */
-    public void addToLocalStorage(String key, Block b){localStorage.put(key,b);}
+    public void addToLocalStorage(KademliaId key, Block b){localStorage.put(key,b);}
 
     /**
      * Stores a key-value pair in the node's local storage if the key does not already exist.
@@ -116,7 +116,7 @@ public class Node implements Serializable {
      * @param key   The key, which corresponds to a key id, used to identify the value.
      * @param value The value, which corresponds to a block, associated with the key.
      */
-    public void storeKeyValuePair(String key,Block value){
+    public void storeKeyValuePair(KademliaId key,Block value){
         if (localStorage.get(key) == null)
             localStorage.put(key,value);
     }
@@ -127,7 +127,7 @@ public class Node implements Serializable {
      * @param key
      * @return a Block if there is a matching in nodes local storage, null otherwise
      */
-    public Block getValue(String key){
+    public Block getValue(KademliaId key){
         return localStorage.get(key);
     }
 
@@ -176,7 +176,7 @@ public class Node implements Serializable {
         try {
             PublicKey storedPK = KeysUtils.loadPublicKey( Path.of( KeysUtils.KEYS_DIR + prefix + "_Pkk" ) );
 
-            String computedNodeId = CryptoUtils.generateSecureNodeId( storedPK );
+            KademliaId computedNodeId = CryptoUtils.generateSecureNodeId( storedPK );
             System.out.println("NODE ID CHECK = " + nodeId.equals( computedNodeId ));
             return nodeId.equals( computedNodeId );
         }catch (Exception e ){
@@ -1,7 +1,7 @@
 package Kademlia;
 
 import BlockChain.Block;
-import BlockChain.Blockchain;
+import BlockChain.BlockHeader;
 import BlockChain.Miner;
 import Cryptography.CryptoUtils;
 import P2P.PeerComunication;
@@ -70,7 +70,7 @@ public class Operations {
      * @param senderNode   the node initiating the {@code FIND_NODE} operation
      * @param targetNodeId the ID of the node being searched for (can be any valid Kademlia node ID)
      */
-    public static void findNode(Node senderNode, String targetNodeId){
+    public static void findNode(Node senderNode, KademliaId targetNodeId){
         // Contains all nodes received in FIND_NODE response
         List<Node> closestNodesToTarget = new ArrayList<>();
         int newNodes;
@@ -138,8 +138,9 @@ public class Operations {
      * <ol>
      *   <li>Contact the {@code bootstrap} node via {@code FIND_NODE} to retrieve the {@code k} closest nodes
      *       to the {@code joiningNode}, and update the {@code joiningNode}'s routing table.</li>
-     *   <li>Synchronize local data: retrieve the bootstrap node’s storage and blockchain (checking if this information
-     *   came from bootstrap node with the help of SecureMessage)</li>
+     *   <li>Synchronize local data: retrieve the bootstrap node’s storage (checking if this information
+     *   came from bootstrap node with the help of SecureMessage), and sync the blockchain headers-first
+     *   (see {@link #syncBlockchain(Node, Node, Collection)})</li>
      *       on the {@code joiningNode}, and apply the received data.</li>
      *   <li>Add the {@code joiningNode} to the bootstrap's routing table via {@code ADD_PEER}.</li>
      *   <li>Notify all {@code k} closest nodes about the new {@code joiningNode} to allow them to update
@@ -159,7 +160,7 @@ public class Operations {
         System.out.println("=====JOIN NETWORK Iteration [0]=====");
         String bootstrapIp = bootstrap.getIpAddr();
         int bootstrapPort = bootstrap.getPort();
-        String joiningId = joiningNode.getNodeId();
+        KademliaId joiningId = joiningNode.getNodeId();
 
         if (PeerComunication.sendMessageToPeer(bootstrapIp,bootstrapPort, "FIND_NODE", joiningId)
                 instanceof SecureMessage findSecureMessage
@@ -177,24 +178,15 @@ public class Operations {
             ) {
 
                 // Update joining nodes local storage with local storage of k closest nodes
-                Map<String, Block> bootstrapStorage = (Map<String, Block>) storageSecureMessage.getPayload();
+                Map<KademliaId, Block> bootstrapStorage = (Map<KademliaId, Block>) storageSecureMessage.getPayload();
                 updatePeerStorageInfo(joiningNode, bootstrapStorage);
 
                 PeerComunication.sendMessageToPeer(bootstrapIp, bootstrapPort, "ADD_PEER", joiningNode);
                 System.out.println("Closest Nodes to [" + joiningNode + "] =" + kClosestNodes);
                 System.out.println("====================================");
 
-                // Update joining node blockchain with bootstraps blockchain
-                if (PeerComunication.sendMessageToPeer(bootstrapIp, bootstrapPort,"GET_BLOCKCHAIN",null)
-                        instanceof  SecureMessage getBlockchainSecureMessage
-                    && getBlockchainSecureMessage.verifySignature()
-                    && checkNodeId(getBlockchainSecureMessage,bootstrap)
-                    && getBlockchainSecureMessage.getPayload()
-                            instanceof Blockchain bootstrapBlockchain
-                )
-                {
-                    updatePeerBlockchain(joiningNode, bootstrapBlockchain);
-                }
+                // Update joining node blockchain with the blocks of the bootstrap it is missing
+                syncBlockchain(joiningNode, bootstrap, kClosestNodes);
 
                 System.out.println("=====JOIN NETWORK Iteration [2]=====");
                 for (Node n : kClosestNodes)
@@ -235,7 +227,7 @@ public class Operations {
      * @return           the {@link Block} if found; {@code null} if the value is not present in the network
      */
     public static Block findValue(Node senderNode, String key,Miner miner) {
-        String keyId = CryptoUtils.generateKeyId(key);
+        KademliaId keyId = CryptoUtils.generateKeyId(key);
         Set<Node> queriedNodes = new HashSet<>();
         Set<Node> discoveredNodes = new HashSet<>();
         int i = 1;
@@ -332,7 +324,7 @@ public class Operations {
      *       across the entire network.
      */
     public static void store (Node senderNode, String key, Block value, Miner miner){
-        String keyId =  CryptoUtils.generateKeyId(key);
+        KademliaId keyId =  CryptoUtils.generateKeyId(key);
         System.out.println("Key Id = " + keyId);
         String senderIp = senderNode.getIpAddr();
         int senderPort = senderNode.getPort();
@@ -385,7 +377,7 @@ public class Operations {
      *                   local storage
      * @param storage    Storage tha contains all the block we are going to send targetNode
      */
-    private  static void updatePeerStorageInfo(Node targetNode, Map<String, Block> storage){
+    private  static void updatePeerStorageInfo(Node targetNode, Map<KademliaId, Block> storage){
         for (Block b : storage.values()){
             System.out.println(
                     PeerComunication.sendMessageToPeer(
@@ -396,20 +388,105 @@ public class Operations {
     }
 
     /**
-     * Updates the blockchain of a certain Peer
+     * Syncs the blockchain of a Peer with the blockchain of another Peer, headers-first:
+     * <ol>
+     *   <li>Asks the Peer that is syncing for its last block ({@code GET_LAST_BLOCK_HASH}).</li>
+     *   <li>Downloads the headers of the blocks after it from {@code sourceNode} ({@code GET_HEADERS}, up to
+     *       {@link BlockChain.Constants#MAX_HEADERS_PER_MESSAGE} per message) and checks that they form a chain
+     *       with valid Proof-Of-Work (see {@link BlockHeader#validChainLength}), so that a peer that sends an
+     *       invalid chain is detected before any block is downloaded.</li>
+     *   <li>Downloads the blocks in ranges ({@code GET_BLOCKS_SINCE}) from {@code sourceNode} and the other
+     *       {@code peers} in parallel (see {@link BlockDownloader}), checks that each one matches its header,
+     *       and sends each range, in chain order, to the Peer that is syncing ({@code ADD_BLOCKS}).</li>
+     * </ol>
+     * So a Peer that is {@code n} blocks behind catches up in about {@code 2n / MAX_BLOCKS_PER_MESSAGE}
+     * round trips (spread over several peers), instead of one connection per block. If the last block of the
+     * Peer that is syncing isn't in the other chain (it is in another branch), the whole chain is downloaded
+     * (blocks it already has are skipped).
      *
-     * @param targetNode  Node/Peer that we are going to send the blockchain
-     * @param blockchain  blockchain that will be used to update Peer
+     * @param targetNode  Node/Peer whose blockchain is going to be updated
+     * @param sourceNode  Node/Peer we download the headers (and blocks) from
+     * @param peers       other Nodes/Peers we can download blocks from (e.g. the neighbours of {@code targetNode})
+     * @return the number of blocks synced (sent to {@code targetNode}), or -1 if the sync failed
+     */
+    public static int syncBlockchain(Node targetNode, Node sourceNode, Collection<Node> peers){
+        String lastBlockHash = "";
+        if (PeerComunication.sendMessageToPeer(targetNode.getIpAddr(), targetNode.getPort(), "GET_LAST_BLOCK_HASH", null)
+                instanceof String hash)
+            lastBlockHash = hash;
+
+        List<BlockHeader> headers = downloadHeaders(sourceNode, lastBlockHash);
+        if (headers == null && !lastBlockHash.isEmpty()) {
+            lastBlockHash = "";
+            headers = downloadHeaders(sourceNode, lastBlockHash);
+        }
+        if (headers == null) {
+            System.out.println("[GET_HEADERS] Could not download a valid header chain from " + sourceNode);
+            return -1;
+        }
+
+        List<Node> downloadPeers = new ArrayList<>();
+        downloadPeers.add(sourceNode);
+        for (Node n : peers) {
+            if (!n.equals(targetNode) && !downloadPeers.contains(n))
+                downloadPeers.add(n);
+        }
+        int synced = new BlockDownloader(downloadPeers, lastBlockHash, headers).download(blocks -> {
+            Object response = PeerComunication.sendMessageToPeer(targetNode.getIpAddr(), targetNode.getPort(), "ADD_BLOCKS", blocks);
+            System.out.println(response);
+            return response instanceof Integer;
+        });
+        System.out.println("Synced " + synced + " of " + headers.size() + " blocks (from " + downloadPeers.size() + " peers)");
+        return synced;
+    }
+
+    /**
+     * Requests to a Peer the blocks after a given block ({@code GET_BLOCKS_SINCE}), checking that
+     * the answer came from that Peer (at most {@link BlockChain.Constants#MAX_BLOCKS_PER_MESSAGE} blocks are sent)
      *
-     * @note we only use this method when a node first joins a network
+     * @param sourceNode        Node/Peer we request the blocks to
+     * @param previousBlockHash hash of the block before the ones we want
+     * @return the blocks the Peer sent, or {@code null} if the request failed (or the Peer doesn't have that block)
      */
-    private static void updatePeerBlockchain (Node targetNode, Blockchain blockchain){
-        for(Block b : blockchain.getBlockchain()){
-            System.out.println(
-                    PeerComunication.sendMessageToPeer(
-                            targetNode.getIpAddr(), targetNode.getPort(), "ADD_MINED_BLOCK", b
-                    )
-            );
+    public static List<?> fetchBlocksSince(Node sourceNode, String previousBlockHash){
+        if (PeerComunication.sendMessageToPeer(sourceNode.getIpAddr(), sourceNode.getPort(), "GET_BLOCKS_SINCE", previousBlockHash)
+                instanceof SecureMessage blocksSecureMessage
+            && blocksSecureMessage.verifySignature()
+            && checkNodeId(blocksSecureMessage, sourceNode)
+            && blocksSecureMessage.getPayload() instanceof List<?> blocks)
+            return blocks;
+        System.out.println("[GET_BLOCKS_SINCE] Error ocurred in fetchBlocksSince (could be because" +
+                "of message signature or comunication error) ");
+        return null;
+    }
+
+    /**
+     * Downloads (and checks) the headers of the blocks that come after a given block
+     * @return the headers that form a valid chain after {@code blockHash}, or {@code null} if the
+     *         block isn't in the chain of {@code sourceNode} or the headers aren't a valid chain
+     */
+    private static List<BlockHeader> downloadHeaders(Node sourceNode, String blockHash){
+        List<BlockHeader> headers = new ArrayList<>();
+        String previousBlockHash = blockHash;
+        while (true) {
+            if (!(PeerComunication.sendMessageToPeer(sourceNode.getIpAddr(), sourceNode.getPort(), "GET_HEADERS", previousBlockHash)
+                    instanceof SecureMessage headersSecureMessage
+                && headersSecureMessage.verifySignature()
+                && checkNodeId(headersSecureMessage, sourceNode)
+                && headersSecureMessage.getPayload() instanceof List<?> received))
+                return null;
+
+            List<BlockHeader> batch = new ArrayList<>(received.size());
+            for (Object o : received) {
+                if (!(o instanceof BlockHeader header)) return null;
+                batch.add(header);
+            }
+            if (BlockHeader.validChainLength(previousBlockHash, batch) != batch.size())
+                return null;
+            headers.addAll(batch);
+            if (batch.size() < BlockChain.Constants.MAX_HEADERS_PER_MESSAGE)
+                return headers;
+            previousBlockHash = batch.get(batch.size() - 1).getBlockHash();
         }
     }
 
@@ -431,8 +508,8 @@ public class Operations {
      */
     public static boolean checkNodeId(SecureMessage secureMessage, Node n) {
         PublicKey pubKey = secureMessage.getSenderPublickKey();
-        String claimedNodeId = n.getNodeId();
-        String computedNodeId = CryptoUtils.generateSecureNodeId(pubKey);
+        KademliaId claimedNodeId = n.getNodeId();
+        KademliaId computedNodeId = CryptoUtils.generateSecureNodeId(pubKey);
         System.out.println("claimedNodeId = " + claimedNodeId );
         System.out.println("computedNodeId = " + computedNodeId);
         System.out.println("Node id is valid? : " + claimedNodeId.equals(computedNodeId));
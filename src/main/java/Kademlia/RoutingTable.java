@@ -2,17 +2,41 @@ package Kademlia;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Class that Represents a Routing table of a kademlia node
+ * <p>
+ * When a node can't be added because its bucket is full, the least-recently seen node of the
+ * bucket is pinged in the background (see {@link Bucket}), and it is only evicted if it doesn't answer.
+ * </p>
  */
 public class RoutingTable implements Serializable {
+
+    /**
+     * Checks if a node is alive
+     */
+    public interface Pinger {
+        /**
+         * @return {@code true} if the node answered
+         */
+        boolean ping(Node n);
+    }
+
+    private static final ExecutorService PINGS = Executors.newCachedThreadPool(runnable -> {
+        Thread t = new Thread(runnable, "bucket-ping");
+        t.setDaemon(true);
+        return t;
+    });
+
     // Info of owner node of this routing table
-    String nodeId;
+    KademliaId nodeId;
     String ipAddr;
     int port;
     int lengthOfNodeId;         // determines the amount of buckets in the routing table
-    List<Bucket> bucketList;    // List of buckets (each Bucket contains a list of Node's)
+    Bucket[] buckets;        // Buckets indexed by the length of the common prefix of their nodes with our id
+    private transient Pinger pinger;    // How the least-recently seen node of a full bucket is pinged (none if null)
 
     /**
      * Constructor for a Routing table
@@ -20,15 +44,24 @@ public class RoutingTable implements Serializable {
      * @param ipAddr    Ip address of owner of routing table
      * @param port      Port of owner of routing table
      */
-    RoutingTable(String nodeId,String ipAddr, int port){
+    RoutingTable(KademliaId nodeId,String ipAddr, int port){
         this.nodeId = nodeId;
         this.ipAddr = ipAddr;
         this.port = port;
-        this.lengthOfNodeId = nodeId.length();
-        bucketList = new ArrayList<>(lengthOfNodeId);
+        this.lengthOfNodeId = nodeId.getNumberOfBits();
+        buckets = new Bucket[lengthOfNodeId + 1];
         initializeBucketList(lengthOfNodeId);
     }
 
+    /**
+     * Sets how the least-recently seen node of a full bucket is pinged (if it isn't set,
+     * nodes are never evicted and new nodes wait in the replacement cache)
+     * @param pinger checks if a node is alive
+     */
+    public void setPinger(Pinger pinger) {
+        this.pinger = pinger;
+    }
+
     /* Auxiliar methods */
 
     /**
@@ -37,93 +70,107 @@ public class RoutingTable implements Serializable {
      */
     private void initializeBucketList(int numberBuckets){
         for (int i = 0 ; i <= numberBuckets ; i++){
-            char[] c = new char[i];
-            Arrays.fill(c, '0');
-            String prefix = new String(c);
-            Bucket b = new Bucket(nodeId,prefix,Constants.MAX_NUMBER_NODES_BUCKET);
+            Bucket b = new Bucket(nodeId,i,Constants.MAX_NUMBER_NODES_BUCKET);
             // Add owner node of this routing table to respetiv bucket (prefix all 0's)
             if(i == numberBuckets)
                 b.addNode(new Node(this.ipAddr,port,false));
-            //System.out.println(b);
-            bucketList.add(b);
+            buckets[i] = b;
         }
 
     }
 
+    /**
+     * Pings the least-recently seen node of a full bucket in the background: it is evicted if it
+     * doesn't answer (and a replacement takes its place), otherwise it moves to the tail
+     */
+    private void pingLeastRecentlySeen(Bucket bucket){
+        Pinger p = pinger;
+        if (p == null) return;
+        Node oldest = bucket.startPing();
+        if (oldest == null) return;
+        PINGS.submit(() -> {
+            boolean alive = false;
+            try {
+                alive = p.ping(oldest);
+            } finally {
+                bucket.finishPing(oldest, alive);
+            }
+        });
+    }
+
+    /**
+     * Adds the nodes of a bucket to the heap of closest nodes, keeping only the alpha closest ones
+     */
+    private static void offerBucket(PriorityQueue<Node> closest, int alpha, Bucket bucket, Comparator<Node> byDistance){
+        for (Node n : bucket.getNodeList()) {
+            if (closest.size() < alpha) {
+                closest.add(n);
+            } else if (byDistance.compare(n, closest.peek()) < 0) {
+                closest.poll();
+                closest.add(n);
+            }
+        }
+    }
+
     /**
      * Retrieves the bucket from the bucket list that has the longest common prefix
      * with the given node ID.
      *
-     * The method determines the longest prefix of consecutive '0's in the node ID
-     * and searches for a bucke with the same prefix.
+     * The length of the common prefix (the number of leading zero bits of the XOR distance)
+     * is computed on the packed ids (see {@link KademliaId#commonPrefixLength(KademliaId)}),
+     * and it is the index of the bucket in the bucket list.
      *
      * @param targetNodeId The ID of the node for which the closest bucket is sought.
-     * @return The bucket with the longest common prefix matching the node ID, or `null` if no such bucket exists.
+     * @return The bucket with the longest common prefix matching the node ID, or `null` if no such bucket exists
+     *         (e.g. the node ID doesn't have the same number of bits as ours).
      */
-    public Bucket getClosestBucket(String targetNodeId){
-        // Tenho que fazer XOR antes de procurar pelo bucket
-
-        String distanceTarget = calculateDistance(targetNodeId);
-        System.out.println(nodeId + " XOR " + targetNodeId + " = " + distanceTarget );
-        String prefix = "";
-        for (int i = 0 ; i < distanceTarget.length() ; i++){
-            if (distanceTarget.charAt(i) == '0')
-                prefix += "0";
-            else
-                break;
-        }
-        for (Bucket b : bucketList){
-            if (prefix.equals(b.getPrefix()))
-                return b;
-        }
-        System.out.println("Bucket prefix = " + prefix);
-        return null;
+    public Bucket getClosestBucket(KademliaId targetNodeId){
+        if (targetNodeId == null || targetNodeId.getNumberOfBits() != lengthOfNodeId)
+            return null;
+        return buckets[nodeId.commonPrefixLength(targetNodeId)];
     }
 
     /**
      * Returns a List of Closest Nodes of given target Node id
-
+     * (the nodes are ordered by their XOR distance to the target, see {@link KademliaId#compareDistance})
+     * <p>
+     * The buckets are visited from the one the target would be in (say with a common prefix of length c
+     * with our id), whose nodes share more than c bits with the target, then the buckets after it (whose
+     * nodes share exactly c bits with the target) and lastly the buckets before it, from c-1 down to 0
+     * (each one farther than the previous). The alpha closest nodes seen so far are kept in a max-heap,
+     * and once it is full the remaining buckets can't have closer nodes, so they aren't visited.
+     * </p>
      * @param alpha the size of the list we are going to return
      * @param targeNodeId the node we are trying to find the closest Nodes
-     * @return List of Closest Nodes of given target Node id
+     * @return List of Closest Nodes of given target Node id (empty if the id doesn't have the same number of bits as ours)
      */
-    public List<Node> getClosestNodes(int alpha,String targeNodeId){
-        List<Node> aux = new ArrayList<>();
-        List<Node> ans = new ArrayList<>();
-
-        // First we get a list of all Nodes in the routing table
-        for (int i = 0 ; i < bucketList.size() ; i++){
-            Bucket bucket = bucketList.get(i);
-            List<Node> nodeList = bucket.getNodeList();
-            for (int j = 0 ; j < nodeList.size() ; j++){
-                aux.add(nodeList.get(j));
-            }
+    public List<Node> getClosestNodes(int alpha,KademliaId targeNodeId){
+        if (alpha <= 0 || targeNodeId == null || targeNodeId.getNumberOfBits() != lengthOfNodeId)
+            return new ArrayList<>();
+
+        // Max-heap (the farthest of the closest nodes found so far is on top)
+        Comparator<Node> byDistance = (n1, n2) -> targeNodeId.compareDistance(n1.getNodeId(), n2.getNodeId());
+        PriorityQueue<Node> closest = new PriorityQueue<>(alpha, byDistance.reversed());
+
+        int targetBucket = nodeId.commonPrefixLength(targeNodeId);
+        offerBucket(closest, alpha, buckets[targetBucket], byDistance);
+        if (closest.size() < alpha) {
+            for (int i = targetBucket + 1; i < buckets.length; i++)
+                offerBucket(closest, alpha, buckets[i], byDistance);
         }
+        for (int i = targetBucket - 1; i >= 0 && closest.size() < alpha; i--)
+            offerBucket(closest, alpha, buckets[i], byDistance);
 
-        // Secondly we create a Map i n wich the key is the Node and
-        // the value is the  Xor distance in decimal of current
-        // Node and target Node
-        Map<Node,Integer> m = new HashMap<>();
-        for (int i = 0 ; i < aux.size() ; i++){
-            Node current = aux.get(i);
-            String xorDistance = calculateDistance(current.getNodeId(),targeNodeId);
-            //System.out.println(current + " XOR " + targeNodeId + " = " + xorDistance);
-            m.put(current, binaryToDecimal(xorDistance));
-        }
-
-        // Lastly we return the alpha Nodes in the sorted Map with lower correspondent value
-        Map<Node,Integer> sortedMap = sortByValueAscending(m);
-        //System.out.println(sortedMap);
-        for (Node n : sortedMap.keySet()){
-            if (ans.size() == alpha)
-                break;
-            ans.add(n);
-        }
+        List<Node> ans = new ArrayList<>(closest);
+        ans.sort(byDistance);
         return ans;
     }
 
     /**
-     * Add's a node to the 'closest' bucket
+     * Add's a node to the 'closest' bucket (found by its index, so only that bucket,
+     * with at most k nodes, is looked at). If the node is already there it moves to the tail,
+     * and if the bucket is full it goes to the replacement cache and the least-recently seen
+     * node of the bucket is pinged.
      * @param n node we are trying to add
      * @return True if node was added and False otherwise
      */
@@ -132,16 +179,25 @@ public class RoutingTable implements Serializable {
 
         if (closestBucket == null)  return false;
 
-        // To avoid duplicates Nodes in the same Bucket
-        for(Node node : closestBucket.getNodeList()) {
-            if (node.equals(n))
-                return false;
-        }
-        return closestBucket.addNode(n);
+        if (closestBucket.addNode(n))
+            return true;
+        if (!closestBucket.contains(n))
+            pingLeastRecentlySeen(closestBucket);
+        return false;
     }
 
     /**
-     * Removes a node from its respectiv bucket
+     * Moves a node of the routing table to the tail of its bucket (we heard from it)
+     * @param n node that was seen
+     * @return True if the node is in the routing table and False otherwise
+     */
+    public boolean markSeen(Node n){
+        Bucket closestBucket = getClosestBucket(n.getNodeId());
+        return closestBucket != null && closestBucket.touch(n);
+    }
+
+    /**
+     * Removes a node from its respectiv bucket (found by its index, see {@link #getClosestBucket})
      * @param n node we are trying to remove
      * @return True if node was removed and False otherwise
      */
@@ -152,76 +208,11 @@ public class RoutingTable implements Serializable {
         return closestBucket.removeNode(n);
     }
 
-    /**
-     * Calculates XOR between this node Id and the node id of target
-     * @param targetNodeId node id of target
-     * @return the String that corresponds to the XOR of this node Id and target node Id
-     */
-    private String calculateDistance(String targetNodeId){
-        StringBuilder result = new StringBuilder();
-        for (int i = 0 ; i < nodeId.length() ; i++){
-            if (nodeId.charAt(i) == targetNodeId.charAt(i))
-                result.append("0");
-            else
-                result.append("1");
-        }
-        return result.toString();
-    }
-
-    /**
-     * Calculate XOR between two given nodes
-     * @param nodeId1
-     * @param nodeId2
-     * @return the String that corresponds to the XOR of nodeId1 and nodeId2
-     */
-    private String calculateDistance(String nodeId1, String nodeId2){
-        if (nodeId1.length() != nodeId2.length())
-            return  null;
-        StringBuilder result = new StringBuilder();
-        for (int i = 0 ; i < nodeId1.length() ; i++){
-            if (nodeId1.charAt(i) == nodeId2.charAt(i))
-                result.append("0");
-            else
-                result.append("1");
-        }
-        return result.toString();
-    }
-
-    /**
-     * Turns a given String in binary and computes the respective decimal value
-     * @param binaryString String in binary format
-     * @return             Decimal value of given binary String
-     */
-    public  int binaryToDecimal(String binaryString) {
-        return Integer.parseInt(binaryString, 2);
-    }
-
-    /**
-     * Method that receives a map and returns a map that is sorted by Ascending order
-     * of value
-     * @param map Map that we are going to sort by value
-     * @return the sorted map (by Ascending order of value)
-     */
-    private Map<Node, Integer> sortByValueAscending(Map<Node, Integer> map) {
-        // Convert a map to a list of entries
-        List<Map.Entry<Node, Integer>> list = new ArrayList<>(map.entrySet());
-
-        // order the list based on the values (Ascending)
-        list.sort(Map.Entry.comparingByValue());
-
-        // Creates a LinkedHashMap to mantain the orderded list
-        Map<Node, Integer> sortedMap = new LinkedHashMap<>();
-        for (Map.Entry<Node, Integer> entry : list) {
-            sortedMap.put(entry.getKey(), entry.getValue());
-        }
-        return sortedMap;
-    }
-
     @Override
     public String toString() {
         StringBuilder ans = new StringBuilder();
         ans.append("Routing table of "+nodeId+":\n");
-        for (Bucket b : bucketList)
+        for (Bucket b : buckets)
             ans.append("   " + b.toString() + "\n");
         return ans.toString();
     }
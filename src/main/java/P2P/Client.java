@@ -1,9 +1,12 @@
 package P2P;
 
 import BlockChain.Block;
+import BlockChain.BlockHeader;
+import BlockChain.MerkleProof;
 import BlockChain.Miner;
 import BlockChain.Transaction;
 import Kademlia.Constants;
+import Kademlia.KademliaId;
 import Kademlia.Node;
 import Kademlia.Operations;
 import Kademlia.SecureMessage;
@@ -43,6 +46,7 @@ public class Client {
                 "13 - Get Server Kademlia Node " + '\n' +
                 "14 - Get Server Storage " + '\n' +
                 "15 - (TEST) GET_ROUTING_TABLE " + '\n' +
+                "16 - Check if a transaction is in a block (Merkle proof)" + '\n' +
                 " exit - Exit" + '\n' +
                 "----------------------------------";
     }
@@ -142,6 +146,10 @@ public class Client {
                     }
                     break;
 
+                case "16":
+                    checkTransactionProofHandler(scanner);
+                    break;
+
                 /* fault injection options */
                 case "i1":
                     sendInvalidBlock(scanner);
@@ -237,13 +245,44 @@ public class Client {
 
     private  void clientMineHandler() {
         if (isPeerPartOfNetwork()) {
-            System.out.println( "Waiting for Response from Peer Server..." );
-            System.out.println( "Peer Server Response: " + PeerComunication.sendMessageToPeer( peerServerHost, peerServerPort, "MINE", null ) );
+            Object response = PeerComunication.sendMessageToPeer( peerServerHost, peerServerPort, "MINE", null );
+            System.out.println( "Peer Server Response: " + response );
+
+            // The block is mined in the background, so the result is shown when the job finishes
+            // (without blocking the menu)
+            if (response instanceof MiningService.MiningJob job && !job.isFinished()) {
+                Thread waiter = new Thread(() -> waitForMiningJob(job.getId()), "mining-job-" + job.getId());
+                waiter.setDaemon(true);
+                waiter.start();
+            }
         } else {
             System.out.println("Please join the network!! (Press 0)");
         }
     }
 
+    /**
+     * Checks a mining job until it finishes, and shows its result
+     * @param jobId id of the job
+     */
+    private void waitForMiningJob(long jobId) {
+        while (true) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            Object response = PeerComunication.sendMessageToPeer( peerServerHost, peerServerPort, "GET_MINING_JOB", jobId );
+            if (!(response instanceof MiningService.MiningJob job)) {
+                System.out.println( "Could not get mining job " + jobId + ": " + response );
+                return;
+            }
+            if (job.isFinished()) {
+                System.out.println( "Mining job finished: " + job );
+                return;
+            }
+        }
+    }
+
     private void startAuctionHanlder(Scanner scanner) {
         if (isPeerPartOfNetwork()) {
             System.out.println( "Insert the name for the auction you want to Create and Start" );
@@ -319,6 +358,41 @@ public class Client {
         }
     }
 
+    private void checkTransactionProofHandler(Scanner scanner) {
+        System.out.println("Insert the id of the transaction you want to check");
+        String transactionId = scanner.nextLine();
+
+        if (PeerComunication.sendMessageToPeer(peerServerHost, peerServerPort, "GET_TRANSACTION_PROOF", transactionId)
+                    instanceof SecureMessage proofSecureMessage
+            && proofSecureMessage.verifySignature()
+            && Operations.checkNodeId(proofSecureMessage,new Node(peerServerHost,peerServerPort,false))
+        ) {
+            if (proofSecureMessage.getPayload() instanceof MerkleProof proof
+                && proof.getTransactionId().equals(transactionId)
+                && headerPowIsValid(proof)
+                && proof.verify()) {
+                System.out.println("Transaction is in block [" + proof.getBlockHash() + "]");
+            } else {
+                System.out.println("Transaction is not in the blockchain (or proof is invalid)");
+            }
+        } else {
+            System.out.println("Error ocured in client (could be signature error or " +
+                    "comunication error");
+        }
+    }
+
+    /**
+     * Checks that the block header of a proof has been mined (its hash has the leading
+     * zero bits of its dificulty), so the peer can't make up a header for the proof
+     */
+    private boolean headerPowIsValid(MerkleProof proof) {
+        try {
+            return new BlockHeader(proof.getBlockHeader()).powIsValid();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     private boolean isPeerPartOfNetwork(){
         String s = (String) PeerComunication.sendMessageToPeer( peerServerHost, peerServerPort, "IS_ON_NETWORK",null);
         return !(s.contains( "NOT OK" ));
@@ -346,9 +420,7 @@ public class Client {
 
     private void addInvalidNode(){
         Node fakeNode = new Node();
-        char[] c = new char[Constants.NUMBER_OF_BITS_NODE_ID];
-        Arrays.fill(c, '0');
-        fakeNode.setNodeId(new String(c));
+        fakeNode.setNodeId(KademliaId.zero(Constants.NUMBER_OF_BITS_NODE_ID));
         fakeNode.setIpAddr( "localhost" );
         fakeNode.setPort( 2020 );
         String response =
@@ -1,7 +1,11 @@
 package P2P;
 
+import BlockChain.BidBook;
 import BlockChain.Block;
+import BlockChain.BlockHeader;
 import BlockChain.Blockchain;
+import BlockChain.Mempool;
+import BlockChain.MerkleProof;
 import BlockChain.Miner;
 import BlockChain.Transaction;
 import Cryptography.CryptoUtils;
@@ -26,7 +30,7 @@ public class ClientHandler implements Runnable {
     Miner miner;
     Blockchain blockchain;
     Node kademliaNode;
-    ArrayList<Transaction> transactionsPool;
+    Mempool mempool;
 
     public ClientHandler(Socket client, Server server, Logger logger) {
         this.client = client;
@@ -34,7 +38,7 @@ public class ClientHandler implements Runnable {
         this.miner = server.miner;
         this.blockchain = server.blockchain;
         this.kademliaNode = server.kademliaNode;
-        this.transactionsPool = server.transactionsPool;
+        this.mempool = server.mempool;
         this.logger = logger;
     }
 
@@ -96,6 +100,15 @@ public class ClientHandler implements Runnable {
                     case "ADD_TRANSACTION":
                         addTransactionHandler(in, out);
                         break;
+                    case "ADD_BLOCKS": // Batch of blocks downloaded while syncing the chain
+                        addBlocksHandler(in, out);
+                        break;
+                    case "GET_HEADERS": // Sent from Peer to Peer (headers-first sync)
+                        getHeadersHandler(in, out);
+                        break;
+                    case "GET_BLOCKS_SINCE": // Sent from Peer to Peer (headers-first sync)
+                        getBlocksSinceHandler(in, out);
+                        break;
 
                     // App only related methods
                     case "GET_AVAILABLE_AUCTIONS":
@@ -110,6 +123,12 @@ public class ClientHandler implements Runnable {
                     case "GET_BLOCKCHAIN":
                         getBlockchain(out);
                         break;
+                    case "GET_LAST_BLOCK_HASH":
+                        getLastBlockHash(out);
+                        break;
+                    case "GET_TRANSACTION_PROOF":
+                        getTransactionProof(in,out);
+                        break;
                     case "GET_KADEMLIA_NODE":
                         getKademliaNode(out);
                         break;
@@ -124,10 +143,12 @@ public class ClientHandler implements Runnable {
                     case "GET_SERVER_INFO":
                         getServerInfo(out);
                         break;
-                    case "STOP": // Stop Mining block
-                        System.out.println("GOING TO STOP server threads and Miner");
-                        server.stopAllThreads();
-                        server.miner.stopMining();
+                    case "GET_MINING_JOB":
+                        getMiningJobHandler(in, out);
+                        break;
+                    case "STOP": // Stop Mining block (only the mining job, other requests are not affected)
+                        System.out.println("GOING TO STOP the mining job");
+                        server.miningService.cancelRunningJob();
                         break;
                     default:
                         logger.warning("Received unknown message type: " + message);
@@ -170,7 +191,7 @@ public class ClientHandler implements Runnable {
                 
                 if (receivedObject instanceof Block b ){
                     logger.info("Received Block to add to 'kademlia' node's Storage = [" + b.getBlockHash() + "]");
-                    String keyId = CryptoUtils.generateKeyId(b.getBlockHash());
+                    KademliaId keyId = CryptoUtils.generateKeyId(b.getBlockHash());
                     kademliaNode.addToLocalStorage(keyId,b);
                     clientOut.writeObject("Updated Kademlia Node storage \n:" + kademliaNode.getLocalStorage());
                 }else {
@@ -198,7 +219,7 @@ public class ClientHandler implements Runnable {
 
                 Object receivedObject = clientIn.readObject();
 
-                if (receivedObject instanceof String targetNodeId) {
+                if (receivedObject instanceof KademliaId targetNodeId && targetNodeId.hasNetworkLength()) {
                     logger.info( "Receive FIND_NODE(" + targetNodeId + ")" );
                     List<Node> kClosestNodes =
                             kademliaNode.getRoutingTable().getClosestNodes( Constants.MAX_RETURN_FIND_NODES, targetNodeId );
@@ -208,7 +229,8 @@ public class ClientHandler implements Runnable {
 
                     clientOut.writeObject( secureMessage );
                 } else {
-                    clientOut.writeObject( "Error: Expected Node Id but received something else" );
+                    clientOut.writeObject( "Error: Expected Node Id of " + Kademlia.Constants.NUMBER_OF_BITS_NODE_ID
+                            + " bits but received something else" );
                     logger.warning( "Error: Did not receive a Node Id (findNodeHandler)" );
                 }
             } catch (Exception e) {
@@ -230,7 +252,7 @@ public class ClientHandler implements Runnable {
 
                 Object receivedObject = clientIn.readObject();
 
-                if (receivedObject instanceof String keyId) {
+                if (receivedObject instanceof KademliaId keyId && keyId.hasNetworkLength()) {
                     Block b = kademliaNode.getValue( keyId );
                     if (b != null) {
                         logger.info( "Value found in local storage" );
@@ -249,8 +271,9 @@ public class ClientHandler implements Runnable {
                         clientOut.writeObject( secureMessage );
                     }
                 } else {
-                    clientOut.writeObject( "Error: Expected String but received something else" );
-                    logger.warning( "Error: Did not receive a String (findValueHandler)" );
+                    clientOut.writeObject( "Error: Expected Key Id of " + Kademlia.Constants.NUMBER_OF_BITS_NODE_ID
+                            + " bits but received something else" );
+                    logger.warning( "Error: Did not receive a Key Id (findValueHandler)" );
                 }
             } catch (Exception e){
                 logger.severe("Error ocured (findValueHandler)");
@@ -275,6 +298,7 @@ public class ClientHandler implements Runnable {
                 && Operations.checkNodeId(secureMessage, n))
             {
                 logger.info("Received Ping from " + n);
+                kademliaNode.getRoutingTable().markSeen(n);
                 clientOut.writeObject("OK");
             }else {
                 clientOut.writeObject("Error: Expected SecureMessage but received something else");
@@ -300,7 +324,8 @@ public class ClientHandler implements Runnable {
 
                 if (receivedObject instanceof SecureMessage secureMessage
                         && secureMessage.verifySignature()
-                        && secureMessage.getPayload() instanceof BlockKeyWrapper blockKeyWrapper)
+                        && secureMessage.getPayload() instanceof BlockKeyWrapper blockKeyWrapper
+                        && blockKeyWrapper.getKeyId().hasNetworkLength())
                 {
                     logger.info("Received Key/Block to Store");
 
@@ -385,104 +410,46 @@ public class ClientHandler implements Runnable {
     }
 
     /**
-     * Handles the mining process and communicates the result to the client.
-     *
-     * <p>This method ensures that only valid transactions are mined by calling {@code removeInvalidPlaceBid()}
-     * before proceeding. If there are no valid transactions left, an informative message is sent to the client.</p>
-     *
-     * <p>Otherwise, a new block is mined from the current state of the transaction pool, then validated,
-     * added to the local blockchain, and propagated to peers in the network.</p>
+     * Handles a request to mine a block.
      *
-     * <p>Steps performed after successful mining:
-     * <ul>
-     *   <li>The transaction pool is cleared to prevent reuse of already-mined transactions.</li>
-     *   <li>A "STOP" message is sent to all known neighbors to halt their ongoing mining operations.</li>
-     *   <li>An "ADD_MINED_BLOCK" message is sent to ensure neighbors update their blockchains with the new block.</li>
-     *   <li>A "STORE" operation is triggered to distribute and persist the block across the network.</li>
-     * </ul>
-     *
-     * <p>Note: This method performs synchronization only when accessing or modifying the {@code transactionsPool},
-     * to ensure thread safety and prevent race conditions in a multithreaded environment. Time-consuming operations
-     * such as mining and networking are executed outside the synchronized block to avoid blocking other threads.</p>
+     * <p>The block isn't mined by this thread: a job is submitted to the mining service of the peer
+     * (see {@link MiningService}), and the client gets the job right away. The status of the job
+     * can be checked later with "GET_MINING_JOB".</p>
      *
      * @param clientOut the stream used to send responses to the client
      */
     private void mineHandler(ObjectOutputStream clientOut) {
-        ArrayList<Transaction> transactionsToMine;
-        synchronized (transactionsPool) {
-            removeInvalidPlaceBid();
-            if (transactionsPool.isEmpty() ) {
-                try {
-                    clientOut.writeObject("Dont have enough transactions to mine a block");
-                    clientOut.flush();
-                } catch (IOException e) {
-                    logger.warning("I/O error while replying to client");
-                }
-                return;
-            }
-            transactionsToMine = new ArrayList<>(transactionsPool); // clone current pool
-        }
-
         try {
-            miner.canStartMining();
             logger.info("Received MINE message");
-
-            String prevhash = blockchain.getLastBlock() != null ? blockchain.getLastBlock().getBlockHash() : "";
-
-            logger.info("Started Mining Block ...");
-            Block b = miner.mineBlock(transactionsToMine, prevhash);
-            logger.info("Finished Mining Block !!!");
-
-            if (!client.isClosed()) {
-                if (!blockchain.addBlock(b, miner.publicKey)) {
-                    logger.severe("Error occurred while adding block to blockchain (mineHandle)");
-                    return;
-                }
-
-                // Reset transactions pool (with syncronized, to avoid race conditions)
-                synchronized (transactionsPool) {
-                    logger.info("Resetting Transactions pool");
-                    transactionsPool.clear();
-                }
-
-                clientOut.writeObject("OK");
-                clientOut.flush();
-
-                for (Node n : server.knowNeighbours) {
-                    PeerComunication.sendMessageToPeer(n.getIpAddr(), n.getPort(), "STOP", null);
-                    PeerComunication.sendMessageToPeer(n.getIpAddr(), n.getPort(), "ADD_MINED_BLOCK", b);
-                }
-
-                Node sender = new Node(server.host, server.port, false);
-                Operations.store(sender, b.getBlockHash(), b, miner);
-            } else {
-                System.out.println("Client Socket is closed");
-            }
-        } catch (SocketException e) {
-            logger.warning("Socket Closed while peer was mining (mineHandler)");
-        } catch (IOException | NullPointerException e) {
-            logger.warning("Exception in mineHandler");
-            e.printStackTrace();
+            long jobId = server.miningService.submit();
+            clientOut.writeObject(server.miningService.getJob(jobId));
+            clientOut.flush();
+        } catch (IOException e) {
+            logger.warning("I/O error while replying to client (mineHandler)");
         }
     }
 
     /**
-     * Remove PLACE_BID transaction that are no longer valid
-     * (e.g. the auction the bid was made is closed)
+     * Sends the state of a mining job (see {@link #mineHandler}) to the client
+     *
+     * @param clientIn  the stream used to receive the id of the job
+     * @param clientOut the stream used to send responses to the client
      */
-    private void removeInvalidPlaceBid(){
-        Iterator<Transaction> it = transactionsPool.iterator();
-        while (it.hasNext()) {
-            Transaction t = it.next();
-            if (t.getType().equals( Transaction.TransactionType.PLACE_BID  )) {
-                Set<String> availableAuctions = blockchain.getAvailableAuctions();
-                String auctionId = t.getAuctionId();
-                for(String auction : availableAuctions){
-                    if(auction.equals(auctionId))
-                        return;
-                }
-                it.remove();
+    private void getMiningJobHandler(ObjectInputStream clientIn, ObjectOutputStream clientOut) {
+        try {
+            clientOut.writeObject("OK");
+            clientOut.flush();
+
+            Object receivedObject = clientIn.readObject();
+            MiningService.MiningJob job = receivedObject instanceof Long jobId ? server.miningService.getJob(jobId) : null;
+            if (job != null) {
+                clientOut.writeObject(job);
+            } else {
+                clientOut.writeObject("NOT OK: Unknown mining job");
             }
+            clientOut.flush();
+        } catch (Exception e) {
+            logger.severe("Error ocured (getMiningJobHandler)");
         }
     }
 
@@ -508,6 +475,12 @@ public class ClientHandler implements Runnable {
                             logger.severe( "Error: Invalid Block (could not add received block to blockchain)" );
                         }
                         else {
+                            // The transactions in the block were mined by another peer (unless
+                            // the block is in a competing branch, not in the chain)
+                            if (blockchain.getHeight(b.getBlockHash()) >= 0)
+                                mempool.removeIncluded(b);
+                            // Our own block would no longer extend the chain
+                            server.miningService.onLastBlockChanged(blockchain.getLastBlock().getBlockHash());
                             clientOut.writeObject( "OK" );
                             logger.info( "Block was added successfully to blockchain" );
                         }
@@ -521,33 +494,123 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /**
+     * Adds a batch of blocks (in chain order) that were downloaded while syncing the chain
+     * (see {@link Kademlia.Operations#syncBlockchain}). The blocks are added while holding the lock
+     * of the blockchain once for the whole batch, and blocks the chain already has are skipped.
+     * <p>
+     * The client receives the number of blocks that were added, or an error message if a block
+     * of the batch is rejected (the blocks after it are not added).
+     * </p>
+     */
+    private void addBlocksHandler(ObjectInputStream clientIn, ObjectOutputStream clientOut) {
+        // Syncronize on blockchain to avoid race conditions between threads
+        synchronized (blockchain) {
+            try {
+                logger.info("Adding batch of blocks ...");
+                clientOut.writeObject("OK");
+                clientOut.flush();
+
+                Object receivedObject = clientIn.readObject();
+                if (!(receivedObject instanceof List<?> blocks)) {
+                    clientOut.writeObject("Error: Expected a List of Blocks but received something else");
+                    logger.warning("Error: Expected a List of Blocks but received something else (addBlocksHandler)");
+                    return;
+                }
+                int added = 0;
+                String error = null;
+                for (Object o : blocks) {
+                    if (!(o instanceof Block b)) {
+                        error = "NOT OK: Expected Block but received something else";
+                        break;
+                    }
+                    if (blockchain.getHeight(b.getBlockHash()) >= 0)
+                        continue;
+                    if (!blockchain.addBlock(b, b.getMinerPublicKey())) {
+                        error = "NOT OK: could not add block " + b.getBlockHash() + " to blockchain";
+                        break;
+                    }
+                    if (blockchain.getHeight(b.getBlockHash()) >= 0)
+                        mempool.removeIncluded(b);
+                    added++;
+                }
+                if (added > 0)
+                    server.miningService.onLastBlockChanged(blockchain.getLastBlock().getBlockHash());
+                logger.info("Added " + added + " of " + blocks.size() + " blocks to blockchain");
+                clientOut.writeObject(error == null ? added : error);
+            } catch (Exception e) {
+                logger.severe("Error ocured (addBlocksHandler)");
+            }
+        }
+    }
+
+    /**
+     * Sends to the client the headers of the blocks after a given block (at most
+     * {@link BlockChain.Constants#MAX_HEADERS_PER_MESSAGE}), in a {@link SecureMessage}.
+     * The payload is {@code null} if the block isn't in our chain.
+     */
+    private void getHeadersHandler(ObjectInputStream clientIn, ObjectOutputStream clientOut) {
+        try {
+            clientOut.writeObject("OK");
+            clientOut.flush();
+
+            Object receivedObject = clientIn.readObject();
+            if (receivedObject instanceof String blockHash) {
+                List<BlockHeader> headers = blockchain.getHeadersSince(blockHash, BlockChain.Constants.MAX_HEADERS_PER_MESSAGE);
+                clientOut.writeObject(new SecureMessage("GET_HEADERS", headers,
+                        miner.getPublicKey(), miner.getPrivateKey()));
+            } else {
+                clientOut.writeObject("Error: Expected String but received something else");
+                logger.warning("Error: Did not receive a String (getHeadersHandler)");
+            }
+        } catch (Exception e) {
+            logger.severe("Error ocured (getHeadersHandler)");
+        }
+    }
+
+    /**
+     * Sends to the client the blocks after a given block (at most
+     * {@link BlockChain.Constants#MAX_BLOCKS_PER_MESSAGE}), in a {@link SecureMessage}.
+     * The payload is {@code null} if the block isn't in our chain.
+     */
+    private void getBlocksSinceHandler(ObjectInputStream clientIn, ObjectOutputStream clientOut) {
+        try {
+            clientOut.writeObject("OK");
+            clientOut.flush();
+
+            Object receivedObject = clientIn.readObject();
+            if (receivedObject instanceof String blockHash) {
+                List<Block> blocks = blockchain.getBlocksSince(blockHash, BlockChain.Constants.MAX_BLOCKS_PER_MESSAGE);
+                clientOut.writeObject(new SecureMessage("GET_BLOCKS_SINCE", blocks,
+                        miner.getPublicKey(), miner.getPrivateKey()));
+            } else {
+                clientOut.writeObject("Error: Expected String but received something else");
+                logger.warning("Error: Did not receive a String (getBlocksSinceHandler)");
+            }
+        } catch (Exception e) {
+            logger.severe("Error ocured (getBlocksSinceHandler)");
+        }
+    }
+
     /**
      * Handles the reception and processing of a new transaction from a client.
      *
      * <p>The transaction is first validated using {@code checkTransaction(t, t.getType())}. If valid, it is added
-     * to the {@code transactionsPool} according to specific rules based on its type:</p>
+     * to the {@code mempool}.</p>
      *
-     * <ul>
-     *   <li>For standard transactions (not {@code PLACE_BID} or {@code CLOSE_AUCTION}): added if the pool has less than 3.</li>
-     *   <li>For {@code PLACE_BID} or {@code CLOSE_AUCTION} transactions: added regardless of pool size, but they
-     *       will immediately trigger mining if added to an empty pool.</li>
-     * </ul>
+     * <p>Transactions don't trigger a block each: the mining service is told a transaction was added, and its
+     * {@link BlockChain.BlockAssemblyPolicy} decides whether the waiting transactions are enough for a block
+     * (e.g. the pool reaches the minimum fill, or the oldest transaction waited the maximum wait time). Under
+     * load, many bids are packed into one block.</p>
      *
-     * <p>If the conditions for mining are met (e.g. pool reaches 3 transactions, or a bid-related transaction is added
-     * when the pool is empty), a "MINE" request is sent to the local peer, which initiates the mining process asynchronously.</p>
-     *
-     * <p>This method uses a {@code synchronized} block around the {@code transactionsPool} to ensure thread safety when
-     * reading and modifying it. Any potentially blocking or long operations, such as initiating mining or logging, are
-     * executed outside the synchronized block to avoid deadlocks or thread contention.</p>
+     * <p>The {@code mempool} is a concurrent structure (that removes duplicated transactions), so concurrent
+     * submitters don't contend on a single lock.</p>
      *
      * @param clientIn  the input stream to receive the transaction object from the client
      * @param clientOut the output stream to send responses back to the client
      */
 
     private void addTransactionHandler(ObjectInputStream clientIn, ObjectOutputStream clientOut) {
-        boolean shouldMine = false;
-        String mineReason = "";     // only for debug
-
         try {
             logger.info("Adding transaction ...");
             clientOut.writeObject("OK");
@@ -556,32 +619,14 @@ public class ClientHandler implements Runnable {
             Object receivedObject = clientIn.readObject();
 
             if (receivedObject instanceof Transaction t && checkTransaction(t, t.getType())) {
-                synchronized (transactionsPool) {
-                    if (!t.getType().equals(Transaction.TransactionType.PLACE_BID) &&
-                        !t.getType().equals(Transaction.TransactionType.CLOSE_AUCTION)) {
-
-                        if (transactionsPool.size() < 3) {
-                            transactionsPool.add(t);
-                            if (transactionsPool.size() == 3) {
-                                shouldMine = true;
-                                mineReason = "Transaction pool reached 3 transactions";
-                            }
-                        }
-                    } else {
-                        transactionsPool.add(t);
-                        shouldMine = true;
-                        mineReason = "PLACE_BID or CLOSE_AUCTION added with empty pool";
-                    }
-                }
-
+                mempool.add(t);
                 clientOut.writeObject("OK");
 
-                // Outside of  synchronized!
-                if (shouldMine) {
-                    logger.info("Triggering mining process because: " + mineReason);
-                    String response =
-                            (String) PeerComunication.sendMessageToPeer(server.host, server.port, "MINE", null);
-                    System.out.println("Peer [MINE Triggered] Response: " + response);
+                // The block assembly policy decides if the waiting transactions are enough for a block
+                long jobId = server.miningService.transactionAdded();
+                if (jobId >= 0) {
+                    logger.info("Triggering mining process because the transaction pool has " + mempool.size() + " transactions");
+                    System.out.println("Peer [MINE Triggered] mining job " + jobId);
                 }
             } else {
                 clientOut.writeObject("NOT OK: Invalid transaction");
@@ -642,16 +687,9 @@ public class ClientHandler implements Runnable {
      */
     private Boolean checkStartAuction(Transaction t) {
         String auctionId = t.getAuctionId();
-        Set<String> availableAuctions = blockchain.getAvailableAuctions();
-        for (String auction : availableAuctions){
-            if(auction.equals(auctionId))
-                return false;
-        }
-        for (Transaction tp : transactionsPool){
-            if(tp.getAuctionId().equals(auctionId))
-                return false;
-        }
-        return true;
+        if (blockchain.isAuctionAvailable(auctionId))
+            return false;
+        return !mempool.hasAuction(auctionId);
     }
 
     /**
@@ -668,43 +706,20 @@ public class ClientHandler implements Runnable {
      */
     private Boolean checkStopAuction(Transaction t) {
         String auctionId = t.getAuctionId();
-        Set<String> availableAuctions = blockchain.getAvailableAuctions();
-        for (String auction : availableAuctions){
-            if(auction.equals(auctionId))
-                return true;
-        }
-        for (Transaction tp : transactionsPool){
-            if(tp.getAuctionId().equals(auctionId) &&
-                    tp.getType().equals(Transaction.TransactionType.START_AUCTION))
-                return true;
-        }
-        return false;
+        if (blockchain.isAuctionAvailable(auctionId))
+            return true;
+        return mempool.hasTransaction(auctionId, Transaction.TransactionType.START_AUCTION);
     }
 
     /**
-     * Determines and announces the winner of an auction based on the highest bid.
+     * Determines and announces the winner of an auction based on the highest bid
+     * (kept up to date in the bid book of the auction).
      */
     private void anounceAuctionWinner(String auctionId) {
-        Set<String> bids = blockchain.getAllBids(auctionId);
-        String highestBidder = null;
-        double highestBid = Double.NEGATIVE_INFINITY;
-        for (String bidEntry : bids) {
-            String[] parts = bidEntry.split(":");
-            if (parts.length != 2) continue; // ignore invalid entries
-
-            String username = parts[0];
-            double bidAmount;
-
-            try {
-                bidAmount = Double.parseDouble(parts[1]);
-            } catch (NumberFormatException e) {
-                continue; // ignore invalid entries
-            }
-
-            if (bidAmount > highestBid) {
-                highestBid = bidAmount;
-                highestBidder = username;
-            }
+        String highestBidder;
+        synchronized (blockchain) {
+            BidBook bids = blockchain.getBidBook(auctionId);
+            highestBidder = bids == null ? null : bids.getHighestBidder();
         }
         logger.info("Winner of auction [" + auctionId + "] is ===> " + highestBidder + " !!!!!!");
     }
@@ -715,8 +730,7 @@ public class ClientHandler implements Runnable {
      * The method performs several checks to determine if the given bid can be added to the blockchain:
      * <ol>
      *   <li>Checks if the bid is being placed on an active/available auction (based on the blockchain's current state).</li>
-     *   <li>Gathers all previous bids for the same auction from the blockchain.</li>
-     *   <li>Sorts existing bids in descending order by bid amount.</li>
+     *   <li>Gets the bid book of the auction (all previous bids in the blockchain, with the highest one).</li>
      *   <li>If no previous bids exist, the new bid is considered valid.</li>
      *   <li>If previous bids exist, the new bid must be greater than the current highest bid to be valid.</li>
      * </ol>
@@ -726,43 +740,19 @@ public class ClientHandler implements Runnable {
      */
     private Boolean checkPlaceBid(Transaction t) {
         String auctionId = t.getAuctionId();
-        Set<String> availableAuctions = blockchain.getAvailableAuctions();
-        //1. check if Place bid is made to an available auction (if not return false)
-        Boolean auctionExists = false;
-        for(String auction : availableAuctions){
-            if(auction.equals(auctionId)){
-                auctionExists = true;
-                break;
-            }
-        }
-
-        if (!auctionExists) return false;
-
-        //2. Get all bids that are made to this auctionId  and are in the Blockchain
-        Set<Transaction> existingBids = new HashSet<>();
-        for (Block b : blockchain.getBlockchain()){
-            for (Transaction tp : b.getTransactions()){
-                if(tp.getAuctionId().equals(auctionId) &&
-                        tp.getType().equals(Transaction.TransactionType.PLACE_BID)){
-                    existingBids.add(tp);
-                }
-            }
-        }
-
-        //3. Sort the bids in descending order of bid amount
-        List<Transaction> sortedBids = new ArrayList<>(existingBids);
-        sortedBids.sort(Comparator.comparingDouble(Transaction::getBidAmount).reversed());
+        synchronized (blockchain) {
+            //1. check if Place bid is made to an available auction (if not return false)
+            if (!blockchain.isAuctionAvailable(auctionId)) return false;
 
-        //3.1 if there is no bids, the bid received is definitely the bigger one
-        if(sortedBids.size() == 0) return true;
+            //2. Get the bids that are made to this auctionId and are in the Blockchain
+            BidBook existingBids = blockchain.getBidBook(auctionId);
 
-        //4. Check if current bid is bigger that first bid in sorted list
-        Double biggestExistingBid = sortedBids.get(0).getBidAmount();
-        if (t.getBidAmount() > biggestExistingBid)
-                return true;
+            //2.1 if there is no bids, the bid received is definitely the bigger one
+            if (existingBids == null || existingBids.isEmpty()) return true;
 
-        //System.out.printf("Existing bids  to %s = %s\n",auctionId,sortedBids);
-        return false;
+            //3. Check if current bid is bigger that the highest bid
+            return t.getBidAmount() > existingBids.getHighestBidAmount();
+        }
     }
 
     /**
@@ -811,24 +801,37 @@ public class ClientHandler implements Runnable {
     }
 
     /**
-     *  Sends the transaction pool stored in the peer to the client.
+     *  Sends the transaction pool (a.k.a. mempool) stored in the peer to the client.
      * <p>
-     * This method synchronizes on the {@code transactionsPool} to prevent race conditions
-     * between threads. It then writes the transaction pool to the given output stream.
+     * The mempool is a concurrent structure, so this method sends a copy of its
+     * transactions (by priority) without locking it.
      * </p>
      *
      * @param clientOut the output stream of the client
      */
     private void getTransactionPool(ObjectOutputStream clientOut) {
-        // Syncronize on transactionsPool to avoid race conditions between threads
-        synchronized (transactionsPool) {
-            try {
-                // TODO por como securemessage
-                clientOut.writeObject(transactionsPool);
-                clientOut.flush();
-            } catch (Exception e) {
-                logger.severe("Error ocured (getTransactionPool)");
-            }
+        try {
+            // TODO por como securemessage
+            clientOut.writeObject(mempool.getTransactions());
+            clientOut.flush();
+        } catch (Exception e) {
+            logger.severe("Error ocured (getTransactionPool)");
+        }
+    }
+
+    /**
+     * Sends the hash of the last block in the blockchain (or an empty string if the
+     * blockchain is empty) to the client, so that it only sends us the blocks we are missing
+     *
+     * @param clientOut the output stream of the client
+     */
+    private void getLastBlockHash(ObjectOutputStream clientOut) {
+        try {
+            Block lastBlock = blockchain.getLastBlock();
+            clientOut.writeObject(lastBlock != null ? lastBlock.getBlockHash() : "");
+            clientOut.flush();
+        } catch (Exception e) {
+            logger.severe("Error ocured (getLastBlockHash)");
         }
     }
 
@@ -858,6 +861,39 @@ public class ClientHandler implements Runnable {
         }
     }
 
+    /**
+     * Sends to the client the proof that a transaction is in a block of the blockchain
+     * (a {@link MerkleProof}, that only has the block header and the Merkle path of the transaction),
+     * so that the client can check it without downloading the whole block.
+     */
+    private void getTransactionProof(ObjectInputStream clientIn, ObjectOutputStream clientOut) {
+        // Syncronize on blockchain to avoid race conditions between threads
+        synchronized (blockchain) {
+            try {
+                clientOut.writeObject("OK");
+                clientOut.flush();
+
+                Object receivedObject = clientIn.readObject();
+                if (receivedObject instanceof String transactionId) {
+                    MerkleProof proof = null;
+                    for (Block b : blockchain.getBlockchain()) {
+                        proof = b.getInclusionProof(transactionId);
+                        if (proof != null) break;
+                    }
+                    SecureMessage secureMessage =
+                            new SecureMessage("GET_TRANSACTION_PROOF", proof,
+                                    miner.getPublicKey(), miner.getPrivateKey());
+                    clientOut.writeObject(secureMessage);
+                } else {
+                    clientOut.writeObject("Error: Expected String but received something else");
+                    logger.warning("Error: Did not receive a String (getTransactionProof)");
+                }
+            } catch (Exception e) {
+                logger.severe("Error ocured (getTransactionProof)");
+            }
+        }
+    }
+
     /**
      *  Sends the kademlia Node info stored in the peer to the client.
      * <p>
@@ -0,0 +1,362 @@
+package P2P;
+
+import BlockChain.Block;
+import BlockChain.BlockAssemblyPolicy;
+import BlockChain.Blockchain;
+import BlockChain.Mempool;
+import BlockChain.Miner;
+import BlockChain.Transaction;
+import Kademlia.Node;
+import Kademlia.Operations;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Service that mines the blocks of a peer in a single background worker, so that the threads
+ * that handle client requests never run the Proof-Of-Work themselves.
+ * <p>
+ * Each request to mine creates a job with an id, that clients can use to check the result of the
+ * job later (see {@link #getJob(long)}). While a job is waiting to run, new requests reuse it (the
+ * job mines whatever the mempool has when it starts). A running job is cancelled when another block
+ * becomes the last block of the chain, which only stops the miner (client connections are left alone).
+ * </p>
+ * <p>
+ * Transactions don't trigger a block each: the {@link BlockAssemblyPolicy} decides when the waiting
+ * transactions are enough for a block (see {@link #transactionAdded()}), so that under load many
+ * transactions are mined together, while a lone transaction still waits at most the wait window.
+ * </p>
+ * <p>
+ * Mining is continuous: when the last block of the chain changes (a block was mined or received) and
+ * there are transactions waiting, the template of the next block is built right away. Transactions that
+ * arrive while a block is mined are added to its template if it has room for them (see
+ * {@link Miner#updateTemplate(ArrayList)}), without stopping the Proof-Of-Work.
+ * </p>
+ */
+public class MiningService {
+    private static final int JOBS_KEPT = 100; // Number of finished jobs whose result can still be checked
+    private static final long TEMPLATE_REFRESH_INTERVAL_MS = 500; // Minimum time between refreshes of a template
+
+    public enum JobStatus {
+        QUEUED, RUNNING, MINED, CANCELLED, FAILED, NO_TRANSACTIONS
+    }
+
+    private final Server server;
+    private final Miner miner;
+    private final Blockchain blockchain;
+    private final Mempool mempool;
+    private final Logger logger;
+    private final BlockAssemblyPolicy policy;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(runnable -> {
+        Thread t = new Thread(runnable, "mining-service");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong nextJobId = new AtomicLong(1);
+    private final Map<Long, MiningJob> jobs = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, MiningJob> eldest) {
+            return size() > JOBS_KEPT;
+        }
+    };
+    private MiningJob queuedJob;  // Job waiting to run (at most one)
+    private MiningJob runningJob; // Job that is being mined
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread t = new Thread(runnable, "block-assembly");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> deadline; // Mines the waiting transactions when the wait window ends
+    private long pendingSince;           // When the oldest transaction that isn't being mined arrived (0 if none)
+    private long lastRefresh;            // When the template of the running job was last refreshed
+
+    /**
+     * Constructor for the MiningService of a peer
+     * @param server server of the peer (its miner, blockchain, mempool and neighbours are used)
+     * @param logger logger of the peer
+     * @param policy policy that decides when a block is mined and how many transactions it has
+     */
+    public MiningService(Server server, Logger logger, BlockAssemblyPolicy policy) {
+        this.server = server;
+        this.policy = policy;
+        this.miner = server.miner;
+        this.blockchain = server.blockchain;
+        this.mempool = server.mempool;
+        this.logger = logger;
+    }
+
+    /**
+     * Requests a block to be mined. Returns right away, the block is mined in the background.
+     * @return the id of the job that will mine the block
+     */
+    public synchronized long submit() {
+        if (queuedJob != null)
+            return queuedJob.id;
+        MiningJob job = new MiningJob(nextJobId.getAndIncrement());
+        jobs.put(job.id, job);
+        queuedJob = job;
+        worker.submit(() -> run(job));
+        return job.id;
+    }
+
+    /**
+     * Called when a transaction is added to the mempool. If the block that is being mined has room for it,
+     * the transaction is added to its template. Otherwise, requests a block if the waiting transactions
+     * are enough (see {@link BlockAssemblyPolicy#isReady(int, long)}), or makes sure a block is
+     * requested when the wait window of the oldest one ends.
+     * @return the id of the job that will mine the transactions, or {@code -1} if they are still waiting
+     */
+    public long transactionAdded() {
+        long refreshedJob = refreshRunningTemplate();
+        return refreshedJob >= 0 ? refreshedJob : assemble();
+    }
+
+    /**
+     * @param jobId id of a job
+     * @return the job, or {@code null} if there is no job with that id (or it finished long ago)
+     */
+    public synchronized MiningJob getJob(long jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Cancels the job that is being mined (if any)
+     * @return {@code true} if a job was cancelled
+     */
+    public synchronized boolean cancelRunningJob() {
+        if (runningJob == null) return false;
+        logger.info("Cancelling mining job " + runningJob.id);
+        runningJob.cancelled = true;
+        miner.stopMining();
+        return true;
+    }
+
+    /**
+     * Called when the last block of the chain changes: the running job is cancelled if
+     * it is mining on top of another block (its block would no longer extend the chain),
+     * and the next block is requested right away if there are transactions waiting
+     * @param lastBlockHash hash of the new last block of the chain
+     */
+    public synchronized void onLastBlockChanged(String lastBlockHash) {
+        if (runningJob != null && runningJob.previousBlockHash != null
+                && !runningJob.previousBlockHash.equals(lastBlockHash)) {
+            runningJob.stale = true; // Its template is rebuilt on the new block when it stops
+            cancelRunningJob();
+        } else if (runningJob == null && queuedJob == null && !mempool.isEmpty()) {
+            submit();
+        }
+    }
+
+    /* Auxiliar methods */
+
+    /**
+     * Requests a block if the waiting transactions are enough, otherwise schedules
+     * the request for when the wait window of the oldest one ends.
+     * The transactions in the template of the running job are already being mined,
+     * so they don't count as waiting.
+     * @return the id of the job that will mine the transactions, or {@code -1} if they are still waiting
+     */
+    private synchronized long assemble() {
+        int pending = mempool.size() - (runningJob != null ? runningJob.transactions : 0);
+        if (pending <= 0) {
+            pendingSince = 0;
+            return -1;
+        }
+        long now = System.currentTimeMillis();
+        if (pendingSince == 0)
+            pendingSince = now;
+        long remaining = policy.remainingWaitMs(pending, now - pendingSince);
+        if (remaining == 0)
+            return submit();
+        if (deadline == null || deadline.isDone())
+            deadline = timer.schedule(this::transactionAdded, remaining, TimeUnit.MILLISECONDS);
+        return -1;
+    }
+
+    /**
+     * Adds the waiting transactions to the template of the running job, if it has room for them
+     * (at most once every {@link #TEMPLATE_REFRESH_INTERVAL_MS}, the work on the block isn't lost)
+     * @return the id of the running job, or {@code -1} if its template wasn't refreshed
+     */
+    private long refreshRunningTemplate() {
+        MiningJob job;
+        synchronized (this) {
+            job = runningJob;
+            long now = System.currentTimeMillis();
+            if (job == null || job.cancelled || job.transactions >= policy.getMaxTransactions()
+                    || now - lastRefresh < TEMPLATE_REFRESH_INTERVAL_MS)
+                return -1;
+            lastRefresh = now;
+        }
+        // The chain is read without holding the lock of the service (see run)
+        removeInvalidPlaceBid();
+        ArrayList<Transaction> transactionsToMine = mempool.selectForBlock(policy.getMaxTransactions());
+        if (transactionsToMine.size() <= job.transactions || !miner.updateTemplate(transactionsToMine))
+            return -1;
+        synchronized (this) {
+            job.transactions = transactionsToMine.size();
+            pendingSince = 0;
+        }
+        logger.info("Refreshed the template of mining job " + job.id + " (" + job.transactions + " transactions)");
+        return job.id;
+    }
+
+    /**
+     * Mines a block with the transactions in the mempool and, if it is added to the chain,
+     * sends it to the neighbours and stores it in the network
+     */
+    private void run(MiningJob job) {
+        // The chain is read without holding the lock of the service (the handlers that add blocks
+        // hold the lock of the blockchain when they call onLastBlockChanged)
+        synchronized (this) {
+            queuedJob = null;
+            pendingSince = 0; // Transactions that arrive from now on wait for the next block
+        }
+        removeInvalidPlaceBid();
+        ArrayList<Transaction> transactionsToMine = mempool.selectForBlock(policy.getMaxTransactions());
+        if (transactionsToMine.isEmpty()) {
+            job.finish(JobStatus.NO_TRANSACTIONS, "Dont have enough transactions to mine a block");
+            return;
+        }
+        synchronized (blockchain) {
+            Block lastBlock = blockchain.getLastBlock();
+            job.previousBlockHash = lastBlock != null ? lastBlock.getBlockHash() : "";
+            job.difficultyBits = blockchain.getNextDifficultyBits();
+        }
+        job.transactions = transactionsToMine.size();
+        synchronized (this) {
+            job.status = JobStatus.RUNNING;
+            runningJob = job;
+            lastRefresh = System.currentTimeMillis();
+            miner.canStartMining();
+        }
+        // A block may have been added between reading the chain and registering the job
+        Block lastBlock = blockchain.getLastBlock();
+        onLastBlockChanged(lastBlock != null ? lastBlock.getBlockHash() : "");
+
+        try {
+            logger.info("Started Mining Block (job " + job.id + ") ...");
+            Block b = miner.mineBlock(transactionsToMine, job.previousBlockHash, job.difficultyBits);
+            logger.info("Finished Mining Block (job " + job.id + ") !!!");
+
+            if (b == null || job.cancelled) {
+                job.finish(JobStatus.CANCELLED, "Another block was added to the chain while mining");
+                return;
+            }
+            if (!blockchain.addBlock(b, miner.publicKey)) {
+                logger.severe("Error occurred while adding block to blockchain (mining job " + job.id + ")");
+                job.finish(JobStatus.FAILED, "Could not add the mined block to the blockchain");
+                return;
+            }
+            job.blockHash = b.getBlockHash();
+            job.transactions = b.getTransactions().size(); // The template may have been refreshed
+
+            // Only remove the transactions that were mined (if another block arrived while mining,
+            // the mined block may be in a competing branch instead of the chain)
+            if (blockchain.getHeight(b.getBlockHash()) >= 0)
+                mempool.removeIncluded(b);
+
+            for (Node n : server.knowNeighbours)
+                PeerComunication.sendMessageToPeer(n.getIpAddr(), n.getPort(), "ADD_MINED_BLOCK", b);
+
+            Node sender = new Node(server.host, server.port, false);
+            Operations.store(sender, b.getBlockHash(), b, miner);
+            job.finish(JobStatus.MINED, "Block " + b.getBlockHash() + " was added to the blockchain");
+        } catch (RuntimeException e) {
+            logger.warning("Exception in mining job " + job.id);
+            e.printStackTrace();
+            job.finish(JobStatus.FAILED, e.toString());
+        } finally {
+            synchronized (this) {
+                if (runningJob == job) runningJob = null;
+            }
+            // Mining is continuous: the next block is built right away on the new last block, with the
+            // transactions that didn't fit in this one or arrived while mining (after a failure, or if
+            // the job was stopped, they wait for the next transaction instead)
+            if (job.status == JobStatus.MINED || job.stale) {
+                synchronized (this) {
+                    if (!mempool.isEmpty()) submit();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove PLACE_BID transaction that are no longer valid
+     * (e.g. the auction the bid was made is closed)
+     */
+    private void removeInvalidPlaceBid(){
+        mempool.removeIf(t -> t.getType().equals( Transaction.TransactionType.PLACE_BID )
+                && !blockchain.isAuctionAvailable(t.getAuctionId()));
+    }
+
+    /**
+     * Job of the mining service (the request to mine one block) and its result.
+     * <p>
+     * The job is sent to the client that requested it (with the state it has when it is sent),
+     * so the client can check its status (see {@link #isFinished()}) until it finishes.
+     * </p>
+     */
+    public static class MiningJob implements Serializable {
+        private final long id;
+        private final long createdAt = System.currentTimeMillis();
+        private volatile JobStatus status = JobStatus.QUEUED;
+        private transient volatile boolean cancelled;
+        private transient volatile boolean stale; // Cancelled because another block became the last block
+        private volatile String previousBlockHash;
+        private volatile int difficultyBits;
+        private volatile int transactions;
+        private volatile String blockHash;
+        private volatile String message = "";
+        private volatile long finishedAt;
+
+        MiningJob(long id) {
+            this.id = id;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public JobStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the hash of the mined block, or {@code null} if the job didn't mine a block (yet)
+         */
+        public String getBlockHash() {
+            return blockHash;
+        }
+
+        public boolean isFinished() {
+            return status != JobStatus.QUEUED && status != JobStatus.RUNNING;
+        }
+
+        private void finish(JobStatus status, String message) {
+            this.message = message;
+            this.finishedAt = System.currentTimeMillis();
+            this.status = status;
+        }
+
+        @Override
+        public String toString() {
+            return "{ Job = " + id + ", " +
+                    "Status = " + status + ", " +
+                    "Transactions = " + transactions + ", " +
+                    "DifficultyBits = " + difficultyBits + ", " +
+                    "BlockHash = " + blockHash + ", " +
+                    "Time = " + ((isFinished() ? finishedAt : System.currentTimeMillis()) - createdAt) + " ms, " +
+                    "Message = " + message + " }";
+        }
+    }
+}
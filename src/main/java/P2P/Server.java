@@ -1,24 +1,32 @@
 package P2P;
 
+import BlockChain.Block;
+import BlockChain.BlockAssemblyPolicy;
+import BlockChain.BlockStore;
 import BlockChain.Blockchain;
+import BlockChain.Mempool;
 import BlockChain.Miner;
-import BlockChain.Transaction;
 import Kademlia.Node;
+import Kademlia.Operations;
 
-import java.io.IOException;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Logger;
 /**
  * Server class that handles client requests
  */
-public class Server implements Runnable {
+public final class Server implements Runnable {
+    /**
+     * Directory where the blocks of each peer's blockchain are stored.
+     */
+    public static final String BLOCKS_DIR = "./src/main/java/P2P/PeersBlocks/";
+
     String host;
     int port;
     ServerSocket server;
@@ -28,8 +36,8 @@ public class Server implements Runnable {
     Blockchain blockchain;
     Node kademliaNode;
     Set<Node> knowNeighbours = new HashSet<>(); // Set of neighbours this peer knows
-    ArrayList<Transaction> transactionsPool = new ArrayList<>();
-    private CopyOnWriteArrayList<ClientHandler> activeClients = new CopyOnWriteArrayList<>(); //thread-safe implementation of a list
+    Mempool mempool = new Mempool(); // Transactions accepted by this peer that are not in the blockchain yet
+    MiningService miningService; // Mines the blocks of this peer in the background
 
 
     /**
@@ -37,7 +45,9 @@ public class Server implements Runnable {
      * <p>
      * This constructor sets up the server with the specified host, port, and logging system.
      * It also initializes a {@code Peer}, a {@code Miner}, a {@code Blockchain}, and a
-     * {@code kademliaNode}. Additionally, it sets up the list of known neighbors and updates the
+     * {@code kademliaNode}. The blockchain is loaded from the peer's block store (see {@link #BLOCKS_DIR}),
+     * so that after a restart only the missing blocks need to be requested (and the auction state is loaded
+     * from its latest snapshot). Additionally, it sets up the list of known neighbors and updates the
      * Kademlia routing table using the provided bootstrap nodes.
      * </p>
      *
@@ -54,8 +64,21 @@ public class Server implements Runnable {
         this.logger = logger;
         this.peer = peer;
         this.miner = new Miner(peer.privateKey,peer.publicKey);
-        this.blockchain = new Blockchain();
+        this.blockchain = new Blockchain(new BlockStore(Paths.get(BLOCKS_DIR + host + "_" + port)),
+                peer.privateKey, peer.publicKey);
+        logger.info("Loaded " + blockchain.getBlockchain().size() + " blocks from the block store");
+        // When the chain switches to another branch, the transactions of the blocks that left
+        // the chain are pending again, and the ones of the blocks that joined it are not
+        this.blockchain.setReorgListener((reverted, applied) -> {
+            for (Block b : reverted)
+                b.getTransactions().forEach(mempool::add);
+            for (Block b : applied)
+                mempool.removeIncluded(b);
+        });
         this.kademliaNode = new Node(host, port, true);
+        // The least-recently seen node of a full bucket is only evicted if it doesn't answer a PING
+        kademliaNode.getRoutingTable().setPinger(n -> Operations.ping(kademliaNode, n, miner));
+        this.miningService = new MiningService(this, logger, BlockAssemblyPolicy.DEFAULT);
 
         // Initialize knowNeighbours and Routing table of kademlia Node
         for (Node neihbour : bootstrapNodes) {
@@ -78,7 +101,6 @@ public class Server implements Runnable {
                     // Creates a thread to handle client request.
                     // This allows the server to handle multiple clients simultaneously
                     ClientHandler requestHandler = new ClientHandler(client, this, logger);
-                    activeClients.add(requestHandler);
                     new Thread(requestHandler).start();
 
 
@@ -154,23 +176,6 @@ public class Server implements Runnable {
         }
     }
 
-    /**
-     * Stop all threads by closing  ClientHandler client socket and
-     * reset's list of active clients
-     */
-    public void stopAllThreads() {
-        for (ClientHandler h : activeClients) {
-            try {
-                h.client.close();
-
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        // Reset activeClients
-        activeClients = new CopyOnWriteArrayList<>();
-    }
-
     /* Getter's */
     //public Miner getMiner() {
     //    return miner;
@@ -0,0 +1,144 @@
+package BlockChain;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Class with Tests relating to the block store (Blocks and auction state snapshots kept on disk)
+ */
+class BlockStoreTest {
+
+    private  Miner user1 = new Miner();
+    private  Miner user2 = new Miner();
+    ArrayList<Transaction> startAuction = new ArrayList<>();
+    ArrayList<Transaction> placeBids = new ArrayList<>();
+    ArrayList<Transaction> closeAuction = new ArrayList<>();
+
+    @BeforeEach
+    void setup(){
+        startAuction.add(new Transaction("user1","user1", Transaction.TransactionType.START_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user2","user2", Transaction.TransactionType.PLACE_BID, "AUC123", 100.50, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user1","user1", Transaction.TransactionType.PLACE_BID, "AUC123", 150.75, System.currentTimeMillis()));
+        closeAuction.add(new Transaction("user2","user2", Transaction.TransactionType.CLOSE_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+    }
+
+    @DisplayName("Adds Blocks to a Blockchain with a block store, and reloads the Blockchain from the store")
+    @Test
+    void blockchainIsReloadedFromBlockStore(@TempDir Path dir) throws IOException {
+        Blockchain storedChain = new Blockchain(new BlockStore(dir));
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        Block secondBlock = user2.mineBlock(placeBids,firstBlock.getBlockHash());
+        assertTrue(storedChain.addBlock(firstBlock, user1.publicKey));
+        assertTrue(storedChain.addBlock(secondBlock, user2.publicKey));
+
+        BlockStore store = new BlockStore(dir);
+        Blockchain reloadedChain = new Blockchain(store);
+        assertEquals(2, reloadedChain.getBlockchain().size());
+        assertEquals(secondBlock.getBlockHash(), reloadedChain.getLastBlock().getBlockHash());
+        assertEquals(1, store.getHeight(secondBlock.getBlockHash()));
+        assertTrue(reloadedChain.checkCurrentChain());
+        assertTrue(reloadedChain.isAuctionAvailable("user1:AUC123"));
+    }
+
+    @DisplayName("Cuts the last record of the block store (crash while writing), and reopens the store")
+    @Test
+    void blockStoreDiscardsTornRecord(@TempDir Path dir) throws IOException {
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        Block secondBlock = user2.mineBlock(placeBids,firstBlock.getBlockHash());
+        try (BlockStore store = new BlockStore(dir)) {
+            store.append(firstBlock);
+            store.append(secondBlock);
+        }
+
+        // Simulate a crash in the middle of writing the second block
+        Path segment;
+        try (var files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+
+        BlockStore store = new BlockStore(dir);
+        assertEquals(1, store.size());
+        assertEquals(firstBlock.getBlockHash(), store.read(0).getBlockHash());
+
+        // The store can still be appended to after the recovery
+        store.append(secondBlock);
+        assertEquals(2, new BlockStore(dir).readAll().size());
+    }
+
+    @DisplayName("Fails to write a Block half way through, and checks the Blocks written after it are kept")
+    @Test
+    void failedAppendRemovesPartialRecord(@TempDir Path dir) throws IOException {
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        Block secondBlock = user2.mineBlock(placeBids,firstBlock.getBlockHash());
+        boolean[] failWrites = {false};
+        try (BlockStore store = new BlockStore(dir) {
+            @Override
+            void write(ByteBuffer record, long offset) throws IOException {
+                if (!failWrites[0]) {
+                    super.write(record, offset);
+                    return;
+                }
+                record.limit(record.position() + record.remaining() / 2);
+                super.write(record, offset);
+                throw new IOException("Disk full");
+            }
+        }) {
+            store.append(firstBlock);
+            failWrites[0] = true;
+            assertThrows(IOException.class, () -> store.append(secondBlock));
+            assertEquals(1, store.size());
+
+            failWrites[0] = false;
+            store.append(secondBlock);
+        }
+
+        BlockStore store = new BlockStore(dir);
+        assertEquals(2, store.size());
+        assertEquals(secondBlock.getBlockHash(), store.read(1).getBlockHash());
+    }
+
+    @DisplayName("Loads the auction state from a signed snapshot, replaying only the Blocks after it")
+    @Test
+    void auctionStateIsLoadedFromSnapshot(@TempDir Path dir) throws IOException {
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        Block secondBlock = user2.mineBlock(closeAuction,firstBlock.getBlockHash());
+        try (BlockStore store = new BlockStore(dir)) {
+            store.append(firstBlock);
+            store.append(secondBlock);
+
+            // Snapshot at the first block, with an auction that only exists in the snapshot
+            AuctionState state = new AuctionState();
+            state.apply(firstBlock);
+            ArrayList<Transaction> other = new ArrayList<>();
+            other.add(new Transaction("user3","user3", Transaction.TransactionType.START_AUCTION, "AUC456", 0, System.currentTimeMillis()));
+            state.apply(new Block(other, ""));
+            store.writeSnapshot(AuctionSnapshot.create(state, 0, firstBlock.getBlockHash(), user1.getPrivateKey(), user1.publicKey));
+        }
+
+        // Only the blocks after the snapshot are replayed
+        Blockchain reloaded = new Blockchain(new BlockStore(dir), user1.getPrivateKey(), user1.publicKey);
+        assertTrue(reloaded.isAuctionAvailable("user3:AUC456"));
+        assertTrue(reloaded.isAuctionAvailable("user1:AUC123"));
+        assertEquals(AuctionState.AuctionStatus.CLOSED, reloaded.getAuctionState().getStatus("user2:AUC123"));
+
+        // A snapshot that isn't signed by the peer is ignored (the state is rebuilt from the chain)
+        Blockchain otherPeer = new Blockchain(new BlockStore(dir), user2.getPrivateKey(), user2.publicKey);
+        assertFalse(otherPeer.isAuctionAvailable("user3:AUC456"));
+        assertTrue(otherPeer.isAuctionAvailable("user1:AUC123"));
+    }
+}
@@ -0,0 +1,96 @@
+package BlockChain;
+
+import Kademlia.BlockDownloader;
+import Kademlia.Node;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Class with Tests relating to the synchronization of the Blockchain between peers (headers and Blocks)
+ */
+class BlockchainSyncTest {
+
+    private  Miner user1 = new Miner();
+    ArrayList<Transaction> startAuction = new ArrayList<>();
+    ArrayList<Transaction> placeBids = new ArrayList<>();
+    ArrayList<Transaction> closeAuction = new ArrayList<>();
+
+    @BeforeEach
+    void setup(){
+        startAuction.add(new Transaction("user1","user1", Transaction.TransactionType.START_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user2","user2", Transaction.TransactionType.PLACE_BID, "AUC123", 100.50, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user1","user1", Transaction.TransactionType.PLACE_BID, "AUC123", 150.75, System.currentTimeMillis()));
+        closeAuction.add(new Transaction("user2","user2", Transaction.TransactionType.CLOSE_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+    }
+
+    @DisplayName("Gets the headers and Blocks after a given Block, and checks the headers form a valid chain")
+    @Test
+    void headersAndBlocksAreServedInBatches(){
+        Blockchain blockchain = new Blockchain();
+        Block first = user1.mineBlock(startAuction, "");
+        assertTrue(blockchain.addBlock(first, user1.publicKey));
+        Block second = user1.mineBlock(placeBids, first.getBlockHash());
+        assertTrue(blockchain.addBlock(second, user1.publicKey));
+        Block third = user1.mineBlock(closeAuction, second.getBlockHash());
+        assertTrue(blockchain.addBlock(third, user1.publicKey));
+
+        List<BlockHeader> headers = blockchain.getHeadersSince("", 10);
+        assertEquals(3, headers.size());
+        assertEquals(3, BlockHeader.validChainLength("", headers));
+        assertEquals(second.getBlockHash(), headers.get(1).getBlockHash());
+        assertTrue(headers.get(2).matches(third));
+        assertFalse(headers.get(2).matches(second));
+
+        // Headers that don't continue from the given block are not a valid chain
+        assertEquals(0, BlockHeader.validChainLength(first.getBlockHash(), headers));
+        assertEquals(2, BlockHeader.validChainLength(first.getBlockHash(), headers.subList(1, 3)));
+
+        assertEquals(List.of(second), blockchain.getBlocksSince(first.getBlockHash(), 1));
+        assertNull(blockchain.getHeadersSince("ab".repeat(32), 10));
+    }
+
+    @DisplayName("Downloads Blocks from a failing, an honest and a tampering peer, and checks they arrive in chain order")
+    @Test
+    void blocksAreDownloadedFromSeveralPeersInOrder(){
+        // The downloader only checks that blocks match their headers (the chain checks the rest)
+        List<Block> chain = new ArrayList<>();
+        String previous = "";
+        for (int i = 0; i < 250; i++) {
+            Block b = new Block(new ArrayList<>(startAuction), previous, Constants.MIN_DIFFICULTY_BITS);
+            chain.add(b);
+            previous = b.getBlockHash();
+        }
+        List<BlockHeader> headers = chain.stream().map(BlockHeader::of).toList();
+
+        Node failing = new Node("127.0.0.1", 1, false);
+        Node honest = new Node("127.0.0.1", 2, false);
+        Node tampering = new Node("127.0.0.1", 3, false);
+        Map<Node, Integer> requests = new ConcurrentHashMap<>();
+        BlockDownloader downloader = new BlockDownloader(List.of(failing, honest, tampering), "", headers, (peer, hash) -> {
+            requests.merge(peer, 1, Integer::sum);
+            if (peer.equals(failing)) return null;
+            List<Block> blocks = new ArrayList<>(chain.subList(hash.isEmpty() ? 0 : chain.indexOf(findByHash(chain, hash)) + 1, chain.size()));
+            blocks = new ArrayList<>(blocks.subList(0, Math.min(blocks.size(), Constants.MAX_BLOCKS_PER_MESSAGE)));
+            if (peer.equals(tampering)) Collections.reverse(blocks);
+            return blocks;
+        });
+
+        List<Block> received = new ArrayList<>();
+        assertEquals(250, downloader.download(received::addAll));
+        assertEquals(chain, received);
+        assertTrue(requests.get(honest) >= 3);
+    }
+
+    private static Block findByHash(List<Block> chain, String hash){
+        return chain.stream().filter(b -> b.getBlockHash().equals(hash)).findFirst().orElseThrow();
+    }
+}
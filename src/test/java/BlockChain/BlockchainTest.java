@@ -5,7 +5,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -73,26 +79,24 @@ class BlockchainTest {
         // Add First valid mined block
         Block firstBlock = user1.mineBlock(startAuction,"");
 
-        String blockHeader =
-                firstBlock.getBlockHash() + firstBlock.getPreviousBlockHash() + firstBlock.getNonce()
-                        + firstBlock.getTimestamp() + firstBlock.getTransactions();
+        byte[] blockHeader = firstBlock.getHeaderBytes();
         byte[] signature = firstBlock.getMinerSignature();
         assertNotNull(signature,"Erro assinatura do miner no bloco é igual a NULL");
 
         // Check if the block signature is valid
         boolean checkBlock =
-                CryptoUtils.verifySignature(user1.publicKey,blockHeader.getBytes(),signature);
+                CryptoUtils.verifySignature(user1.publicKey,blockHeader,signature);
         assertTrue(checkBlock,"Erro assinatura do miner é invalida, mas devia ser válida");
 
         // Signs the block header with other miner's priv. key
         byte[] fakesignature =
-                CryptoUtils.sign(user2.getPrivateKey(),blockHeader.getBytes());
+                CryptoUtils.sign(user2.getPrivateKey(),blockHeader);
 
         // Puts the other miner signature in the block (which is invalid)
         firstBlock.forceSetMinerSignature(fakesignature);
         signature = firstBlock.getMinerSignature();
         checkBlock =
-                CryptoUtils.verifySignature(user1.publicKey,blockHeader.getBytes(),signature);
+                CryptoUtils.verifySignature(user1.publicKey,blockHeader,signature);
         assertFalse(checkBlock,"Erro verificação da assinatura devia ser inválida");
 
     }
@@ -119,13 +123,36 @@ class BlockchainTest {
 
         secondBlock.forceSetMinerSignature(fakesignature);
 
-        // Try to add new Valid block to a tampered blockchain
+        // Adding a new Valid block only validates that block (the tampered one was already validated)
         Block fourthBlock = user1.mineBlock(closeAuction,blockchain.getLastBlock().getBlockHash());
-        assertFalse(blockchain.addBlock(fourthBlock, user1.publicKey),"Erro Blockchain tem bloco invalido, e adicionou bloco");
+        assertTrue(blockchain.addBlock(fourthBlock, user1.publicKey),"Erro na adição do quarto bloco");
 
 
         System.out.println(blockchain);
         assertFalse(blockchain.checkCurrentChain(),"Erro Blockchain tem bloco invalido mas checkCurrentChain diz que é valido");
+
+        // After the full audit found the invalid block, no more blocks are added to the tampered blockchain
+        Block fifthBlock = user1.mineBlock(closeAuction,blockchain.getLastBlock().getBlockHash());
+        assertFalse(blockchain.addBlock(fifthBlock, user1.publicKey),"Erro Blockchain tem bloco invalido, e adicionou bloco");
+    }
+
+    @DisplayName("Creates a Blockchain from a list of blocks with an invalid block, and tries to add a new valid Block")
+    @Test
+    void addBlockToUnvalidatedChain(){
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        Block secondBlock = user2.mineBlock(placeBids,firstBlock.getBlockHash());
+        secondBlock.forceSetMinerSignature(CryptoUtils.sign(user1.getPrivateKey(),secondBlock.getHeaderBytes()));
+
+        ArrayList<Block> blocks = new ArrayList<>();
+        blocks.add(firstBlock);
+        blocks.add(secondBlock);
+        Blockchain received = new Blockchain(blocks);
+        assertEquals(0, received.getValidatedHeight());
+
+        // The blocks that were never validated are validated before adding a new one
+        Block thirdBlock = user2.mineBlock(closeAuction,secondBlock.getBlockHash());
+        assertFalse(received.addBlock(thirdBlock, user2.publicKey),"Erro Blockchain tem bloco invalido, e adicionou bloco");
+        assertEquals(1, received.getValidatedHeight());
     }
 
 
@@ -173,9 +200,164 @@ class BlockchainTest {
 
         assertFalse(blockchain.checkCurrentChain(),"Erro checkCurrentChain devia retornar falso");
 
+        // The audit reports the first block that failed, and which checks failed
+        Blockchain.AuditResult audit = blockchain.auditChain();
+        assertEquals(2, audit.getFailedHeight());
+        assertFalse(audit.linkIsValid());
+        assertFalse(audit.hashIsValid());
+        assertTrue(audit.powIsValid());
     }
 
+    @DisplayName("Changes a field of a transaction of a received Block (keeping its id), and tries to add the Block")
+    @Test
+    void tamperedTransactionInBlockIsRejected() throws Exception {
+        Block block = user1.mineBlock(placeBids,"");
+
+        // The block is received from another peer, with the bid changed
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(block);
+        }
+        Block received;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            received = (Block) in.readObject();
+        }
+        Transaction bid = received.getTransactions().get(0);
+        Field bidAmount = Transaction.class.getDeclaredField("bidAmount");
+        bidAmount.setAccessible(true);
+        bidAmount.setDouble(bid, 1_000_000);
+
+        assertEquals(placeBids.get(0).getTransactionId(), bid.getTransactionId());
+        assertFalse(blockchain.addBlock(received, user1.publicKey),"Erro bloco com transação alterada devia ser rejeitado");
+        assertTrue(blockchain.addBlock(block, user1.publicKey),"Erro na adição do bloco original");
+    }
+
+    @DisplayName("Checks that the auction state is updated as blocks are added")
+    @Test
+    void auctionStateIsUpdatedWithBlocks(){
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        assertTrue(blockchain.addBlock(firstBlock, user1.publicKey),"Erro na adição do pimeiro bloco");
+        assertTrue(blockchain.isAuctionAvailable("user1:AUC123"));
+        assertEquals("user1", blockchain.getAuctionState().getOwner("user1:AUC123"));
 
+        ArrayList<Transaction> closeAndRestart = new ArrayList<>();
+        closeAndRestart.add(new Transaction("user1","user1", Transaction.TransactionType.CLOSE_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+        closeAndRestart.add(new Transaction("user1","user1", Transaction.TransactionType.START_AUCTION, "AUC123", 0, System.currentTimeMillis() + 1));
+        Block secondBlock = user1.mineBlock(closeAndRestart,firstBlock.getBlockHash());
+        assertTrue(blockchain.addBlock(secondBlock, user1.publicKey),"Erro na adição do segundo bloco");
+
+        // A closed auction can't be opened again
+        assertFalse(blockchain.isAuctionAvailable("user1:AUC123"));
+        assertEquals(AuctionState.AuctionStatus.CLOSED, blockchain.getAuctionState().getStatus("user1:AUC123"));
+        assertTrue(blockchain.getAvailableAuctions().isEmpty());
+
+        // The state rebuilt from the blocks is the same
+        Blockchain copy = new Blockchain(new ArrayList<>(blockchain.getBlockchain()));
+        assertEquals(blockchain.getAvailableAuctions(), copy.getAvailableAuctions());
+        assertEquals(AuctionState.AuctionStatus.CLOSED, copy.getAuctionState().getStatus("user1:AUC123"));
+    }
+
+    @DisplayName("Checks that the bid book of an auction keeps the highest bid and the winner")
+    @Test
+    void bidBookKeepsHighestBid(){
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        assertTrue(blockchain.addBlock(firstBlock, user1.publicKey),"Erro na adição do pimeiro bloco");
+        assertNull(blockchain.getBidBook("user1:AUC123"));
+
+        ArrayList<Transaction> bidsToAuction = new ArrayList<>();
+        bidsToAuction.add(new Transaction("user1","user2", Transaction.TransactionType.PLACE_BID, "AUC123", 100.50, System.currentTimeMillis()));
+        bidsToAuction.add(new Transaction("user1","user1", Transaction.TransactionType.PLACE_BID, "AUC123", 150.75, System.currentTimeMillis() + 1));
+        Block secondBlock = user1.mineBlock(bidsToAuction,firstBlock.getBlockHash());
+        assertTrue(blockchain.addBlock(secondBlock, user1.publicKey),"Erro na adição do segundo bloco");
+
+        BidBook bids = blockchain.getBidBook("user1:AUC123");
+        assertEquals(2, bids.size());
+        assertEquals(150.75, bids.getHighestBidAmount());
+        assertEquals("user1", bids.getHighestBidder());
+        assertEquals(2, blockchain.getAllBids("user1:AUC123").size());
+
+        ArrayList<Transaction> lowerBidAndClose = new ArrayList<>();
+        lowerBidAndClose.add(new Transaction("user1","user3", Transaction.TransactionType.PLACE_BID, "AUC123", 120, System.currentTimeMillis()));
+        lowerBidAndClose.add(new Transaction("user1","user1", Transaction.TransactionType.CLOSE_AUCTION, "AUC123", 0, System.currentTimeMillis() + 1));
+        Block thirdBlock = user1.mineBlock(lowerBidAndClose,secondBlock.getBlockHash());
+        assertTrue(blockchain.addBlock(thirdBlock, user1.publicKey),"Erro na adição do terceiro bloco");
+
+        assertEquals(3, bids.size());
+        assertEquals("user1", bids.getHighestBidder());
+        assertEquals("user1", blockchain.getAuctionState().getWinner("user1:AUC123"));
+    }
+
+    @DisplayName("Looks up the Blocks of the chain by hash and by height")
+    @Test
+    void lookupBlocksByHashAndHeight(){
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        Block secondBlock = user2.mineBlock(placeBids,firstBlock.getBlockHash());
+        assertTrue(blockchain.addBlock(firstBlock, user1.publicKey));
+        assertTrue(blockchain.addBlock(secondBlock, user2.publicKey));
+
+        assertSame(secondBlock, blockchain.getBlockByHash(secondBlock.getBlockHash()));
+        assertSame(firstBlock, blockchain.getBlockAtHeight(0));
+        assertNull(blockchain.getBlockAtHeight(2));
+        assertEquals(1, blockchain.getHeight(secondBlock.getBlockHash()));
+        assertSame(firstBlock, blockchain.getParent(secondBlock.getBlockHash()));
+        assertNull(blockchain.getParent(firstBlock.getBlockHash()));
+
+        assertEquals(List.of(secondBlock), blockchain.getBlocksSince(firstBlock.getBlockHash()));
+        assertEquals(2, blockchain.getBlocksSince("").size());
+        assertTrue(blockchain.getBlocksSince(secondBlock.getBlockHash()).isEmpty());
+        assertNull(blockchain.getBlocksSince("unknown"));
+
+        // A chain created from a list builds the index when it is first used
+        Blockchain copy = new Blockchain(new ArrayList<>(blockchain.getBlockchain()));
+        assertSame(secondBlock, copy.getBlockByHash(secondBlock.getBlockHash()));
+    }
+
+    @DisplayName("Retargets the dificulty toward the target block interval (each adjustment is bounded)")
+    @Test
+    void difficultyIsAdjustedToBlockInterval(){
+        long expected = (Constants.RETARGET_INTERVAL - 1) * Constants.TARGET_BLOCK_INTERVAL_MS;
+        assertEquals(20, Blockchain.retarget(20, 0, expected));
+        assertEquals(21, Blockchain.retarget(20, 0, expected / 2));
+        assertEquals(19, Blockchain.retarget(20, 0, expected * 2));
+        // Each adjustment is bounded
+        assertEquals(20 + Constants.MAX_RETARGET_STEP_BITS, Blockchain.retarget(20, 0, 0));
+        assertEquals(20 - Constants.MAX_RETARGET_STEP_BITS, Blockchain.retarget(20, 0, expected * 1000));
+        assertEquals(Constants.MIN_DIFFICULTY_BITS, Blockchain.retarget(Constants.MIN_DIFFICULTY_BITS, 0, expected * 4));
+    }
+
+    @DisplayName("Tries to add Blocks mined with another dificulty than the one the chain requires")
+    @Test
+    void blockWithWrongDifficultyIsRejected(){
+        assertEquals(Constants.INITIAL_DIFFICULTY_BITS, blockchain.getNextDifficultyBits());
+
+        // Easier than what the chain requires
+        Block easyBlock = user1.mineBlock(startAuction,"", Constants.INITIAL_DIFFICULTY_BITS - 4);
+        assertFalse(blockchain.addBlock(easyBlock, user1.publicKey), "Bloco com dificuldade errada foi adicionado");
+
+        // Lying about the dificulty changes the block hash
+        Block block = user1.mineBlock(startAuction,"");
+        block.setDifficultyBits(Constants.INITIAL_DIFFICULTY_BITS + 1);
+        assertFalse(blockchain.addBlock(block, user1.publicKey));
+    }
+
+    @DisplayName("Verifies a Block signature twice, and checks the second time is answered by the signature cache")
+    @Test
+    void verifiedSignaturesAreCached(){
+        SignatureCache cache = new SignatureCache(2);
+        Block block = user1.mineBlock(startAuction,"");
+        byte[] header = block.getHeaderBytes();
+
+        assertTrue(cache.verify(user1.publicKey, header, block.getMinerSignature()));
+        assertTrue(cache.verify(user1.publicKey, header, block.getMinerSignature()));
+        assertEquals(1, cache.getHits());
+
+        // Other key or other header are not answered by the cache
+        assertFalse(cache.verify(user2.publicKey, header, block.getMinerSignature()));
+        block.setNonce(block.getNonce() + 1);
+        assertFalse(cache.verify(user1.publicKey, block.getHeaderBytes(), block.getMinerSignature()));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.size());
+    }
 
     //TODO adicionar restantes casos
-}
\ No newline at end of file
+}
@@ -0,0 +1,58 @@
+package BlockChain;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Class with Tests relating to the mempool and the block assembly policy
+ */
+class MempoolTest {
+
+    private  Miner user1 = new Miner();
+    ArrayList<Transaction> startAuction = new ArrayList<>();
+
+    @BeforeEach
+    void setup(){
+        startAuction.add(new Transaction("user1","user1", Transaction.TransactionType.START_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+    }
+
+    @DisplayName("Adds transactions to the mempool, and removes the ones that were mined in a Block")
+    @Test
+    void mempoolRemovesMinedTransactions(){
+        Mempool mempool = new Mempool();
+        Transaction start = startAuction.get(0);
+        assertTrue(mempool.add(start));
+        assertFalse(mempool.add(start), "Transação duplicada foi aceite");
+        assertFalse(mempool.add(new Transaction("user1","user1", Transaction.TransactionType.START_AUCTION, "AUC123", 0, start.getTimestamp() + 1)),
+                "Segundo START_AUCTION do mesmo leilão foi aceite");
+
+        Block firstBlock = user1.mineBlock(mempool.selectForBlock(Integer.MAX_VALUE),"");
+        Transaction late = new Transaction("user3","user3", Transaction.TransactionType.START_AUCTION, "AUC456", 0, System.currentTimeMillis());
+        assertTrue(mempool.add(late));
+
+        mempool.removeIncluded(firstBlock);
+        assertEquals(1, mempool.size());
+        assertTrue(mempool.contains(late.getTransactionId()));
+        assertFalse(mempool.hasAuction("user1:AUC123"));
+    }
+
+    @DisplayName("Checks when the assembly policy has enough transactions (or waited enough) to mine a Block")
+    @Test
+    void blockAssemblyPolicyBatchesTransactions(){
+        BlockAssemblyPolicy policy = new BlockAssemblyPolicy(100, 10, 2000);
+
+        assertFalse(policy.isReady(0, 5000));
+        assertFalse(policy.isReady(1, 500));
+        assertEquals(1500, policy.remainingWaitMs(1, 500));
+        assertTrue(policy.isReady(1, 2000));  // A lone transaction waits at most the wait window
+        assertTrue(policy.isReady(10, 0));    // Enough transactions are mined right away
+        assertEquals(0, policy.remainingWaitMs(10, 0));
+
+        assertThrows(IllegalArgumentException.class, () -> new BlockAssemblyPolicy(5, 10, 2000));
+    }
+}
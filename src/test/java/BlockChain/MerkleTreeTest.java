@@ -0,0 +1,113 @@
+package BlockChain;
+
+import Cryptography.CryptoUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Class with Tests relating to Merkle trees of the Blocks (inclusion proofs of the transactions)
+ */
+class MerkleTreeTest {
+
+    private  Miner user1 = new Miner();
+    ArrayList<Transaction> startAuction = new ArrayList<>();
+    ArrayList<Transaction> placeBids = new ArrayList<>();
+    ArrayList<Transaction> closeAuction = new ArrayList<>();
+
+    @BeforeEach
+    void setup(){
+        startAuction.add(new Transaction("user1","user1", Transaction.TransactionType.START_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user2","user2", Transaction.TransactionType.PLACE_BID, "AUC123", 100.50, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user1","user1", Transaction.TransactionType.PLACE_BID, "AUC123", 150.75, System.currentTimeMillis()));
+        closeAuction.add(new Transaction("user2","user2", Transaction.TransactionType.CLOSE_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+    }
+
+    @DisplayName("Checks the Merkle inclusion proofs of the transactions in a Block")
+    @Test
+    void checkMerkleInclusionProof(){
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        transactions.addAll(startAuction);
+        transactions.addAll(placeBids);
+        transactions.addAll(closeAuction);
+        Block block = user1.mineBlock(transactions,"");
+
+        assertEquals(84, block.getHeaderBytes().length, "Erro header do bloco devia ter 84 bytes");
+        for (Transaction t : block.getTransactions()){
+            MerkleProof proof = block.getInclusionProof(t.getTransactionId());
+            assertNotNull(proof,"Erro transação devia estar no bloco");
+            assertTrue(proof.verify(block.getBlockHash()),"Erro prova de inclusão devia ser válida");
+        }
+
+        Transaction other = new Transaction("user3","user3", Transaction.TransactionType.START_AUCTION, "AUC456", 0, System.currentTimeMillis());
+        assertNull(block.getInclusionProof(other.getTransactionId()),"Erro transação não devia estar no bloco");
+
+        // A proof of a transaction can't be used to prove another one
+        MerkleProof proof = block.getInclusionProof(transactions.get(0).getTransactionId());
+        MerkleProof forged = new MerkleProof(other.getTransactionId(), proof.getBlockHeader(), proof.getPath());
+        assertFalse(forged.verify(block.getBlockHash()),"Erro prova de inclusão devia ser inválida");
+    }
+
+    @DisplayName("Tries to prove an inner node of the Merkle tree (and the Merkle root) as if it was a transaction")
+    @Test
+    void innerNodesCantBeProvedAsTransactions(){
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        transactions.addAll(startAuction);
+        transactions.addAll(placeBids);
+        transactions.addAll(closeAuction);
+        Block block = user1.mineBlock(transactions,"");
+        MerkleProof proof = block.getInclusionProof(transactions.get(0).getTransactionId());
+        MerkleProof.Path path = proof.getPath();
+        assertEquals(2, path.size());
+
+        // Parent of the first two leaves, proved with the sibling of that parent
+        MessageDigest digest = CryptoUtils.getSha256Digest();
+        digest.update((byte) 0x00);
+        digest.update(CryptoUtils.hexStringToByteArray(transactions.get(0).getTransactionId()));
+        byte[] leaf = digest.digest();
+        digest.update((byte) 0x01);
+        digest.update(leaf);
+        digest.update(path.getSibling(0));
+        byte[] innerNode = digest.digest();
+        MerkleProof.Path shortPath = new MerkleProof.Path(List.of(path.getSibling(1)), List.of(false), 0, 2);
+        assertFalse(new MerkleProof(Utils.getHexString(innerNode), proof.getBlockHeader(), shortPath).verify(),
+                "Erro nó interno foi aceite como transação");
+
+        byte[] merkleRoot = Arrays.copyOfRange(proof.getBlockHeader(),
+                Block.MERKLE_ROOT_OFFSET, Block.MERKLE_ROOT_OFFSET + Utils.HASH_LENGTH);
+        MerkleProof.Path emptyPath = new MerkleProof.Path(List.of(), List.of(), 0, 1);
+        assertFalse(new MerkleProof(Utils.getHexString(merkleRoot), proof.getBlockHeader(), emptyPath).verify(),
+                "Erro raiz de Merkle foi aceite como transação");
+    }
+
+    @DisplayName("Changes the length and the sides of a valid Merkle path, and checks the proof is rejected")
+    @Test
+    void pathMustHaveTheTreeDepth(){
+        ArrayList<Transaction> transactions = new ArrayList<>();
+        transactions.addAll(startAuction);
+        transactions.addAll(placeBids);
+        Block block = user1.mineBlock(transactions,"");
+
+        // With 3 transactions the last one is promoted, so its path is shorter
+        MerkleProof last = block.getInclusionProof(transactions.get(2).getTransactionId());
+        assertEquals(1, last.getPath().size());
+        assertTrue(last.verify(block.getBlockHash()));
+
+        MerkleProof.Path path = last.getPath();
+        List<byte[]> siblings = List.of(path.getSibling(0));
+        String id = last.getTransactionId();
+        assertFalse(new MerkleProof(id, last.getBlockHeader(), new MerkleProof.Path(siblings, List.of(true), 2, 4)).verify(),
+                "Erro caminho mais curto que a árvore foi aceite");
+        assertFalse(new MerkleProof(id, last.getBlockHeader(), new MerkleProof.Path(siblings, List.of(false), 2, 3)).verify(),
+                "Erro caminho com os lados errados foi aceite");
+        assertFalse(new MerkleProof(id, last.getBlockHeader(), new MerkleProof.Path(siblings, List.of(true), 3, 3)).verify(),
+                "Erro posição fora da árvore foi aceite");
+    }
+}
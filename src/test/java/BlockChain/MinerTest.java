@@ -0,0 +1,47 @@
+package BlockChain;
+
+import Cryptography.CryptoUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Class with Tests relating to the Miner (proof of work)
+ */
+class MinerTest {
+
+    private  Miner user1 = new Miner();
+    ArrayList<Transaction> startAuction = new ArrayList<>();
+    ArrayList<Transaction> placeBids = new ArrayList<>();
+
+    @BeforeEach
+    void setup(){
+        startAuction.add(new Transaction("user1","user1", Transaction.TransactionType.START_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user2","user2", Transaction.TransactionType.PLACE_BID, "AUC123", 100.50, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user1","user1", Transaction.TransactionType.PLACE_BID, "AUC123", 150.75, System.currentTimeMillis()));
+    }
+
+    @DisplayName("Replaces the transactions of a Block while it is mined, and checks the mined Block has the new ones")
+    @Test
+    void templateIsRefreshedWhileMining() throws Exception {
+        assertFalse(user1.updateTemplate(new ArrayList<>(placeBids))); // Not mining
+
+        Block block = new Block(startAuction, "", 22);
+        CompletableFuture<Block> mined = CompletableFuture.supplyAsync(() -> user1.proofOfWork(block));
+        ArrayList<Transaction> refreshed = new ArrayList<>(startAuction);
+        refreshed.addAll(placeBids);
+        while (!user1.updateTemplate(new ArrayList<>(refreshed)) && !mined.isDone())
+            Thread.onSpinWait();
+
+        Block result = mined.get();
+        assertEquals(3, result.getTransactions().size());
+        assertEquals(block.getTimestamp(), result.getTimestamp());
+        assertEquals(result.getBlockHash(), Utils.getHexString(CryptoUtils.getSha256Digest().digest(result.getHeaderBytes())));
+        assertTrue(Utils.countLeadingZeroBits(Utils.hashToBytes(result.getBlockHash())) >= 22);
+    }
+}
@@ -0,0 +1,135 @@
+package BlockChain;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Class with Tests relating to the reorganization of the Blockchain (branches and orphan Blocks)
+ */
+class ReorganizationTest {
+
+    private  Blockchain blockchain;
+    private  Miner user1 = new Miner();
+    private  Miner user2 = new Miner();
+    ArrayList<Transaction> startAuction = new ArrayList<>();
+    ArrayList<Transaction> placeBids = new ArrayList<>();
+    ArrayList<Transaction> closeAuction = new ArrayList<>();
+
+    @BeforeEach
+    void setup(){
+        blockchain = new Blockchain();
+        startAuction.add(new Transaction("user1","user1", Transaction.TransactionType.START_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user2","user2", Transaction.TransactionType.PLACE_BID, "AUC123", 100.50, System.currentTimeMillis()));
+        placeBids.add(new Transaction("user1","user1", Transaction.TransactionType.PLACE_BID, "AUC123", 150.75, System.currentTimeMillis()));
+        closeAuction.add(new Transaction("user2","user2", Transaction.TransactionType.CLOSE_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+    }
+
+    @DisplayName("Two miners extend the same block, and the chain switches to the heaviest branch")
+    @Test
+    void reorganizeToHeaviestBranch(){
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        assertTrue(blockchain.addBlock(firstBlock, user1.publicKey));
+
+        ArrayList<Transaction> bid = new ArrayList<>();
+        bid.add(new Transaction("user1","user2", Transaction.TransactionType.PLACE_BID, "AUC123", 100.50, System.currentTimeMillis()));
+        Block bidBlock = user1.mineBlock(bid,firstBlock.getBlockHash());
+        assertTrue(blockchain.addBlock(bidBlock, user1.publicKey));
+
+        ArrayList<Transaction> close = new ArrayList<>();
+        close.add(new Transaction("user1","user1", Transaction.TransactionType.CLOSE_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+        Block closeBlock = user2.mineBlock(close,firstBlock.getBlockHash());
+        Block nextBlock = user2.mineBlock(closeAuction,closeBlock.getBlockHash());
+
+        List<Block> reverted = new ArrayList<>();
+        blockchain.setReorgListener((r, applied) -> reverted.addAll(r));
+
+        // Same work as the chain: kept as a branch
+        assertTrue(blockchain.addBlock(closeBlock, user2.publicKey));
+        assertSame(bidBlock, blockchain.getLastBlock());
+        assertEquals(1, blockchain.getBidBook("user1:AUC123").size());
+
+        // The branch becomes heavier than the chain
+        assertTrue(blockchain.addBlock(nextBlock, user2.publicKey));
+        assertSame(nextBlock, blockchain.getLastBlock());
+        assertEquals(List.of(bidBlock), reverted);
+        assertEquals(-1, blockchain.getHeight(bidBlock.getBlockHash()));
+        assertTrue(blockchain.checkCurrentChain());
+
+        // The auction state was rolled back (the bid left the chain) and forward (the auction was closed)
+        assertFalse(blockchain.isAuctionAvailable("user1:AUC123"));
+        assertNull(blockchain.getAuctionState().getWinner("user1:AUC123"));
+        assertNull(blockchain.getBidBook("user1:AUC123"));
+    }
+
+    @DisplayName("The block store fails while switching to a heavier branch, and the chain keeps the old branch")
+    @Test
+    void failedReorganizationKeepsTheChain(@TempDir Path dir) throws IOException {
+        boolean[] failAppends = {false};
+        BlockStore store = new BlockStore(dir) {
+            @Override
+            public synchronized void append(Block block) throws IOException {
+                if (failAppends[0]) throw new IOException("Disk full");
+                super.append(block);
+            }
+        };
+        Blockchain storedChain = new Blockchain(store);
+
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        Block bidBlock = user1.mineBlock(placeBids,firstBlock.getBlockHash());
+        assertTrue(storedChain.addBlock(firstBlock, user1.publicKey));
+        assertTrue(storedChain.addBlock(bidBlock, user1.publicKey));
+
+        Block closeBlock = user2.mineBlock(closeAuction,firstBlock.getBlockHash());
+        ArrayList<Transaction> bid = new ArrayList<>();
+        bid.add(new Transaction("user1","user2", Transaction.TransactionType.PLACE_BID, "AUC123", 200, System.currentTimeMillis()));
+        Block nextBlock = user2.mineBlock(bid,closeBlock.getBlockHash());
+        assertTrue(storedChain.addBlock(closeBlock, user2.publicKey));
+        int bids = storedChain.getBidBook("user1:AUC123").size();
+
+        failAppends[0] = true;
+        assertFalse(storedChain.addBlock(nextBlock, user2.publicKey));
+        assertSame(bidBlock, storedChain.getLastBlock());
+        assertEquals(1, storedChain.getHeight(bidBlock.getBlockHash()));
+        assertEquals(-1, storedChain.getHeight(closeBlock.getBlockHash()));
+        assertTrue(storedChain.checkCurrentChain());
+        assertTrue(storedChain.isAuctionAvailable("user1:AUC123"));
+        assertEquals(bids, storedChain.getBidBook("user1:AUC123").size());
+
+        // The store couldn't be restored yet, so the missing blocks are written with the next block
+        failAppends[0] = false;
+        assertEquals(1, store.size());
+        ArrayList<Transaction> close = new ArrayList<>();
+        close.add(new Transaction("user1","user1", Transaction.TransactionType.CLOSE_AUCTION, "AUC123", 0, System.currentTimeMillis()));
+        Block lastBlock = user1.mineBlock(close,bidBlock.getBlockHash());
+        assertTrue(storedChain.addBlock(lastBlock, user1.publicKey));
+        assertSame(lastBlock, storedChain.getLastBlock());
+        assertEquals(3, store.size());
+        assertEquals(1, store.getHeight(bidBlock.getBlockHash()));
+        assertEquals(2, store.getHeight(lastBlock.getBlockHash()));
+    }
+
+    @DisplayName("Adds a Block before its parent, and checks it is added to the chain when the parent arrives")
+    @Test
+    void orphanBlockIsAddedWhenParentArrives(){
+        Block firstBlock = user1.mineBlock(startAuction,"");
+        Block secondBlock = user2.mineBlock(placeBids,firstBlock.getBlockHash());
+        Block thirdBlock = user2.mineBlock(closeAuction,secondBlock.getBlockHash());
+
+        assertTrue(blockchain.addBlock(firstBlock, user1.publicKey));
+        assertFalse(blockchain.addBlock(thirdBlock, user2.publicKey), "Bloco sem pai foi adicionado à cadeia");
+        assertSame(firstBlock, blockchain.getLastBlock());
+
+        assertTrue(blockchain.addBlock(secondBlock, user2.publicKey));
+        assertSame(thirdBlock, blockchain.getLastBlock());
+        assertEquals(3, blockchain.getBlockchain().size());
+    }
+}
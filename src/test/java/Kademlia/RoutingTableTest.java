@@ -0,0 +1,203 @@
+package Kademlia;
+
+import BlockChain.Utils;
+import Cryptography.CryptoUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Class with Tests relating to the Routing table of a kademlia Node (and its node ids)
+ */
+class RoutingTableTest {
+
+    @Test
+    void packedIdsKeepTheBitsOfTheHash(){
+        byte[] hash = CryptoUtils.hexStringToByteArray("a1" + "00".repeat(31));
+        KademliaId id = KademliaId.fromHash(hash, 8);
+        assertEquals("10100001", id.toBinaryString());
+        assertEquals("a1", id.toString());
+        assertEquals(id, KademliaId.fromBinaryString("10100001"));
+        assertEquals(KademliaId.fromBinaryString("101"), KademliaId.fromHash(hash, 3));
+        assertEquals(CryptoUtils.generateKeyId("key"), CryptoUtils.generateKeyId("key"));
+    }
+
+    @Test
+    void xorDistanceIsComputedOnPackedIds(){
+        KademliaId target = KademliaId.fromBinaryString("10100001");
+        KademliaId near = KademliaId.fromBinaryString("10100110");
+        KademliaId far = KademliaId.fromBinaryString("00100001");
+
+        assertEquals(5, target.commonPrefixLength(near));
+        assertEquals(0, target.commonPrefixLength(far));
+        assertEquals(8, target.commonPrefixLength(target));
+        assertTrue(target.compareDistance(near, far) < 0);
+        assertTrue(target.compareDistance(far, near) > 0);
+        assertEquals(0, target.compareDistance(near, near));
+        assertEquals("00000111", target.xor(near).toBinaryString());
+    }
+
+    @Test
+    void distanceUsesEveryWordOfLongIds(){
+        String prefix = "0".repeat(100);
+        KademliaId target = KademliaId.fromBinaryString(prefix + "1" + "0".repeat(27));
+        KademliaId near = KademliaId.fromBinaryString(prefix + "1" + "0".repeat(26) + "1");
+        KademliaId far = KademliaId.fromBinaryString(prefix + "0" + "1".repeat(27));
+
+        assertEquals(127, target.commonPrefixLength(near));
+        assertEquals(100, target.commonPrefixLength(far));
+        assertTrue(target.compareDistance(near, far) < 0);
+    }
+
+    @Test
+    void nodeIdsHaveTheWholeHash() throws Exception {
+        KademliaId id = CryptoUtils.generateKeyId("key");
+        assertEquals(256, id.getNumberOfBits());
+        assertTrue(id.hasNetworkLength());
+        assertEquals(Utils.getHexString(CryptoUtils.getSha256Digest().digest("key".getBytes())), id.toString());
+
+        // Ids are sent to other peers packed (and are equal when they are received)
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new BlockKeyWrapper(id, null));
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(id, ((BlockKeyWrapper) in.readObject()).getKeyId());
+        }
+    }
+
+    @Test
+    void closestNodesAreFoundWithFullLengthIds(){
+        KademliaId owner = CryptoUtils.generateKeyId("owner");
+        RoutingTable routingTable = new RoutingTable(owner, "127.0.0.1", 1);
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Node n = new Node();
+            n.setNodeId(CryptoUtils.generateKeyId("node" + i));
+            n.setIpAddr("127.0.0.1");
+            n.setPort(1000 + i);
+            nodes.add(n);
+            routingTable.addNodeToBucketList(n);
+        }
+
+        KademliaId target = CryptoUtils.generateKeyId("target");
+        List<Node> closest = routingTable.getClosestNodes(3, target);
+        assertEquals(3, closest.size());
+        for (Node n : nodes) {
+            if (!closest.contains(n) && routingTable.getClosestBucket(n.getNodeId()).getNodeList().contains(n))
+                assertTrue(target.compareDistance(closest.get(2).getNodeId(), n.getNodeId()) < 0);
+        }
+        assertTrue(target.compareDistance(closest.get(0).getNodeId(), closest.get(1).getNodeId()) < 0);
+        assertTrue(routingTable.getClosestNodes(3, KademliaId.zero(8)).isEmpty());
+    }
+
+    @Test
+    void closestNodesMatchAFullSort(){
+        // The owner of the routing table is in its last bucket, so it must have its id
+        RoutingTable routingTable = new RoutingTable(new Node("127.0.0.1", 1, false).getNodeId(), "127.0.0.1", 1);
+        for (int i = 0; i < 300; i++) {
+            Node n = new Node();
+            n.setNodeId(CryptoUtils.generateKeyId("node" + i));
+            n.setIpAddr("127.0.0.1");
+            n.setPort(1000 + i);
+            routingTable.addNodeToBucketList(n);
+        }
+        List<Node> all = new ArrayList<>();
+        for (Bucket b : routingTable.buckets)
+            all.addAll(b.getNodeList());
+
+        for (int t = 0; t < 20; t++) {
+            KademliaId target = t == 0 ? routingTable.nodeId : CryptoUtils.generateKeyId("target" + t);
+            all.sort((n1, n2) -> target.compareDistance(n1.getNodeId(), n2.getNodeId()));
+            for (int alpha : new int[]{1, 3, 20, all.size() + 5})
+                assertEquals(all.subList(0, Math.min(alpha, all.size())), routingTable.getClosestNodes(alpha, target));
+        }
+    }
+
+    @Test
+    void bucketsAreIndexedByCommonPrefixLength(){
+        KademliaId owner = KademliaId.fromBinaryString("0".repeat(200) + "1".repeat(56));
+        RoutingTable routingTable = new RoutingTable(owner, "127.0.0.1", 1);
+        assertEquals(257, routingTable.buckets.length);
+
+        Node n = new Node();
+        n.setNodeId(KademliaId.fromBinaryString("0".repeat(130) + "1".repeat(126)));
+        n.setIpAddr("127.0.0.1");
+        n.setPort(2);
+        assertTrue(routingTable.addNodeToBucketList(n));
+        assertFalse(routingTable.addNodeToBucketList(n));
+        assertEquals(130, routingTable.getClosestBucket(n.getNodeId()).getPrefixLength());
+        assertTrue(routingTable.buckets[130].getNodeList().contains(n));
+        assertTrue(routingTable.removeNodeFromBucketList(n));
+        assertEquals(0, routingTable.buckets[130].size());
+        assertNull(routingTable.getClosestBucket(KademliaId.zero(8)));
+    }
+
+    @Test
+    void fullBucketsEvictOnlyDeadNodes() throws Exception {
+        RoutingTable routingTable = new RoutingTable(KademliaId.zero(256), "127.0.0.1", 1);
+        Set<Node> dead = ConcurrentHashMap.newKeySet();
+        Set<Node> pinged = ConcurrentHashMap.newKeySet();
+        routingTable.setPinger(n -> {
+            pinged.add(n);
+            return !dead.contains(n);
+        });
+
+        // Every node has a 1 as its first bit, so they all go to the first bucket
+        int k = Constants.MAX_NUMBER_NODES_BUCKET;
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < k + 2; i++) {
+            Node n = new Node();
+            n.setNodeId(KademliaId.fromBinaryString("1" + String.format("%8s", Integer.toBinaryString(i)).replace(' ', '0') + "0".repeat(247)));
+            n.setIpAddr("127.0.0.1");
+            n.setPort(1000 + i);
+            nodes.add(n);
+        }
+        Bucket bucket = routingTable.getClosestBucket(nodes.get(0).getNodeId());
+        for (int i = 0; i < k; i++)
+            assertTrue(routingTable.addNodeToBucketList(nodes.get(i)));
+
+        // Seen nodes move to the tail
+        assertFalse(routingTable.addNodeToBucketList(nodes.get(0)));
+        assertEquals(nodes.get(1), bucket.getNodeList().get(0));
+        assertEquals(nodes.get(0), bucket.getNodeList().get(k - 1));
+
+        // The least-recently seen node answers, so it stays (at the tail) and the new node waits
+        assertFalse(routingTable.addNodeToBucketList(nodes.get(k)));
+        waitFor(() -> pinged.contains(nodes.get(1)) && bucket.getNodeList().get(k - 1).equals(nodes.get(1)));
+        assertEquals(List.of(nodes.get(k)), bucket.getReplacements());
+        assertEquals(k, bucket.size());
+
+        // The least-recently seen node is dead, so the most recently seen replacement takes its place
+        dead.add(nodes.get(2));
+        assertFalse(routingTable.addNodeToBucketList(nodes.get(k + 1)));
+        waitFor(() -> !bucket.contains(nodes.get(2)));
+        assertTrue(bucket.contains(nodes.get(k + 1)));
+        assertEquals(List.of(nodes.get(k)), bucket.getReplacements());
+        assertEquals(k, bucket.size());
+
+        // A removed node is also replaced
+        assertTrue(routingTable.removeNodeFromBucketList(nodes.get(3)));
+        assertTrue(bucket.contains(nodes.get(k)));
+        assertTrue(bucket.getReplacements().isEmpty());
+    }
+
+    /* Auxiliar methods */
+
+    private static void waitFor(java.util.function.BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+}